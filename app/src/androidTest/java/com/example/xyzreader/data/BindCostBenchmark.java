@@ -0,0 +1,124 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * What binding a list row costs: every {@link ArticleLoader.ListQuery} column read with a
+ * {@code moveToPosition} on the cursor, against the same reads from an {@link ArticlePage}
+ * copied out of it, which is what {@link PagedArticleList} hands the list. Copying the page is
+ * timed on its own, it happens on the worker thread once per page. The figures go to logcat
+ * under {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BindCostBenchmark {
+    private static final String TAG = "BindCostBenchmark";
+    /** Passes over all rows, after one that isn't counted. */
+    private static final int PASSES = 5;
+
+    private TestProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = new TestProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.delete();
+    }
+
+    @Test
+    public void onePage() {
+        benchmark(PagedArticleList.PAGE_SIZE);
+    }
+
+    @Test
+    public void thousandRows() {
+        benchmark(1000);
+    }
+
+    @Test
+    public void tenThousandRows() {
+        benchmark(10000);
+    }
+
+    private void benchmark(int count) {
+        TestArticles.upsert(mProvider.resolver, count, "a");
+        final Cursor cursor = mProvider.resolver.query(ItemsContract.Items.buildDirUri(),
+                ArticleLoader.ListQuery.PROJECTION, null, null, ItemsContract.Items.DEFAULT_SORT);
+        try {
+            assertEquals(count, cursor.getCount());
+
+            final long copyStart = System.nanoTime();
+            final ArticlePage page = ArticlePage.from(cursor, 0,
+                    new ArticlePage.Interner(4 * count));
+            final long copyNanos = System.nanoTime() - copyStart;
+
+            // a checksum, so the reads can't be optimized away
+            long cursorSum = readCursor(cursor, count);
+            long pageSum = readPage(page, count);
+            long cursorNanos = 0;
+            long pageNanos = 0;
+            for (int pass = 0; pass < PASSES; pass++) {
+                long start = System.nanoTime();
+                cursorSum += readCursor(cursor, count);
+                cursorNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                pageSum += readPage(page, count);
+                pageNanos += System.nanoTime() - start;
+            }
+            assertTrue(cursorSum > 0);
+            assertEquals(cursorSum, pageSum);
+
+            final long reads = (long) count * PASSES;
+            Log.i(TAG, String.format("%d rows: cursor %d ns/row, snapshot %d ns/row,"
+                            + " copying the snapshot %d ns/row", count, cursorNanos / reads,
+                    pageNanos / reads, copyNanos / count));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Reads every column of every row the way a bind does, in scrolling order. */
+    private static long readCursor(Cursor cursor, int count) {
+        long sum = 0;
+        for (int position = 0; position < count; position++) {
+            cursor.moveToPosition(position);
+            sum += cursor.getLong(ArticleLoader.ListQuery._ID)
+                    + cursor.getLong(ArticleLoader.ListQuery.PUBLISHED_DATE) % 1000
+                    + (long) cursor.getFloat(ArticleLoader.ListQuery.ASPECT_RATIO)
+                    + cursor.getString(ArticleLoader.ListQuery.TITLE).length()
+                    + cursor.getString(ArticleLoader.ListQuery.AUTHOR).length()
+                    + cursor.getString(ArticleLoader.ListQuery.THUMB_URL).length()
+                    + cursor.getString(ArticleLoader.ListQuery.EXCERPT).length();
+        }
+        return sum;
+    }
+
+    private static long readPage(ArticlePage page, int count) {
+        long sum = 0;
+        for (int position = 0; position < count; position++) {
+            sum += page.getId(position)
+                    + page.getPublishedDate(position) % 1000
+                    + (long) page.getAspectRatio(position)
+                    + page.getTitle(position).length()
+                    + page.getAuthor(position).length()
+                    + page.getThumbUrl(position).length()
+                    + page.getExcerpt(position).length();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.xyzreader.data;
+
+import android.os.SystemClock;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput of {@link ItemsProvider#bulkInsert}, written the way a sync writes: batches of
+ * {@link TestArticles#BATCH_SIZE} rows, first all new, then all changed. The figures go to
+ * logcat under {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BulkInsertBenchmark {
+    private static final String TAG = "BulkInsertBenchmark";
+
+    private TestProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = new TestProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.delete();
+    }
+
+    @Test
+    public void thousandRows() {
+        benchmark(1000);
+    }
+
+    @Test
+    public void tenThousandRows() {
+        benchmark(10000);
+    }
+
+    @Test
+    public void hundredThousandRows() {
+        benchmark(100000);
+    }
+
+    private void benchmark(int count) {
+        long start = SystemClock.elapsedRealtime();
+        TestArticles.upsert(mProvider.resolver, count, "a");
+        final long insertMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(count, TestArticles.count(mProvider.resolver));
+
+        // the same server ids again, so every row is an update
+        start = SystemClock.elapsedRealtime();
+        TestArticles.upsert(mProvider.resolver, count, "b");
+        final long updateMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(count, TestArticles.count(mProvider.resolver));
+
+        report(count, "inserted", insertMillis);
+        report(count, "updated", updateMillis);
+    }
+
+    private static void report(int count, String what, long millis) {
+        Log.i(TAG, String.format("%d rows %s in %d ms, %d rows/s", count, what, millis,
+                count * 1000L / Math.max(1, millis)));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads while a sync's transaction is open, which in WAL mode neither waits for the writer
+ * nor sees what it hasn't committed yet. The transaction is the size of a large refresh, and
+ * the reads the list makes are timed while it is being written; the figures go to logcat
+ * under {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ConcurrentReadTest {
+    private static final String TAG = "ConcurrentReadTest";
+
+    private static final int COMMITTED = 1000;
+    private static final int WRITTEN = 20000;
+    /** Rounds of reads, each a count, the first list page and the newest title. */
+    private static final int READS = 20;
+    /** How long the writer may take, and then keeps its transaction open for the reads. */
+    private static final long WRITER_WAIT_SECONDS = 60;
+
+    private TestProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = new TestProvider();
+        TestArticles.upsert(mProvider.resolver, COMMITTED, "a");
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.delete();
+    }
+
+    @Test
+    public void readDuringSyncSeesLastCommit() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch read = new CountDownLatch(1);
+        final Throwable[] writerError = new Throwable[1];
+
+        // Writes like UpdaterService: a batch the rest of its writes join, ended once the
+        // reads are done. Should the reads wait for the writer, the writer gives up waiting
+        // in turn and commits, and the reads then see too many rows.
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.resolver.call(ItemsContract.Items.buildDirUri(),
+                        ItemsContract.METHOD_BEGIN_BATCH, null, null);
+                try {
+                    TestArticles.upsert(mProvider.resolver, TestArticles.BATCH_SIZE, "b");
+                    started.countDown();
+                    TestArticles.upsert(mProvider.resolver, WRITTEN, "b");
+                    written.countDown();
+                    read.await(WRITER_WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (Throwable e) {
+                    writerError[0] = e;
+                } finally {
+                    mProvider.resolver.call(ItemsContract.Items.buildDirUri(),
+                            ItemsContract.METHOD_END_BATCH, ItemsContract.ARG_COMMIT, null);
+                    started.countDown();
+                    written.countDown();
+                }
+            }
+        });
+        writer.start();
+
+        assertTrue(started.await(WRITER_WAIT_SECONDS, TimeUnit.SECONDS));
+        final long[] countNanos = new long[READS];
+        final long[] pageNanos = new long[READS];
+        final long[] titleNanos = new long[READS];
+        int whileWriting = 0;
+        for (int i = 0; i < READS; i++) {
+            if (written.getCount() > 0) {
+                whileWriting++;
+            }
+            long start = System.nanoTime();
+            assertEquals(COMMITTED, TestArticles.count(mProvider.resolver));
+            countNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(PagedArticleList.PAGE_SIZE, firstPageCount());
+            pageNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals("Article 0 a", newestTitle());
+            titleNanos[i] = System.nanoTime() - start;
+        }
+        assertTrue(written.await(WRITER_WAIT_SECONDS, TimeUnit.SECONDS));
+        // after the writes, before the commit
+        assertEquals(COMMITTED, TestArticles.count(mProvider.resolver));
+        read.countDown();
+        writer.join();
+
+        Log.i(TAG, String.format("%d of %d rounds of reads while %d rows were being written",
+                whileWriting, READS, WRITTEN));
+        report("count", countNanos);
+        report("first list page", pageNanos);
+        report("newest title", titleNanos);
+        assertNull(writerError[0]);
+
+        assertEquals(WRITTEN, TestArticles.count(mProvider.resolver));
+        assertEquals("Article 0 b", newestTitle());
+    }
+
+    private int firstPageCount() {
+        final Cursor cursor = mProvider.resolver.query(
+                ItemsContract.Items.buildPageUri(0, PagedArticleList.PAGE_SIZE),
+                ArticleLoader.ListQuery.PROJECTION, null, null, ItemsContract.Items.DEFAULT_SORT);
+        try {
+            // reads every row, as copying the page does
+            int count = 0;
+            while (cursor.moveToNext()) {
+                cursor.getString(ArticleLoader.ListQuery.TITLE);
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String newestTitle() {
+        final Cursor cursor = mProvider.resolver.query(ItemsContract.Items.buildDirUri(),
+                new String[]{ItemsContract.Items.TITLE}, null, null,
+                ItemsContract.Items.DEFAULT_SORT);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void report(String what, long[] nanos) {
+        Arrays.sort(nanos);
+        Log.i(TAG, String.format("%s during the sync: median %.1f ms, max %.1f ms", what,
+                nanos[nanos.length / 2] / 1e6, nanos[nanos.length - 1] / 1e6));
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loading pages of {@link PagedArticleList} and the row changes it reports after a reload.
+ * The list is driven from the main thread, as in the app, and its callbacks are handed over
+ * to the test thread.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class PagedArticleListTest {
+    private static final long TIMEOUT_SECONDS = 5;
+    private static final String DATA_SET_CHANGED = "data set changed";
+
+    private TestProvider mProvider;
+    private PagedArticleList mList;
+    private final BlockingQueue<Object> mEvents = new LinkedBlockingQueue<Object>();
+
+    @Before
+    public void setUp() {
+        mProvider = new TestProvider();
+    }
+
+    @After
+    public void tearDown() {
+        if (mList != null) {
+            onMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    mList.close();
+                }
+            });
+        }
+        mProvider.delete();
+    }
+
+    @Test
+    public void startLoadsCountAndFirstPage() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 500, "a");
+        start();
+
+        assertEquals(500, mList.getCount());
+        final ArticlePage first = getPage(0);
+        assertNotNull(first);
+        assertEquals(PagedArticleList.PAGE_SIZE, first.getCount());
+        assertEquals("Article 0 a", first.getTitle(0));
+        assertEquals("Article 49 a", first.getTitle(49));
+    }
+
+    @Test
+    public void missingPageIsLoadedOnRequest() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 500, "a");
+        start();
+
+        assertNull(getPage(320));
+        assertEquals(range(300, PagedArticleList.PAGE_SIZE), nextEvent());
+        final ArticlePage page = getPage(320);
+        assertNotNull(page);
+        assertEquals("Article 320 a", page.getTitle(320));
+    }
+
+    @Test
+    public void residentPagesAreBounded() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 1000, "a");
+        start();
+
+        for (int page = 1; page <= PagedArticleList.MAX_RESIDENT_PAGES + 2; page++) {
+            // the first row of a page, so nothing is prefetched
+            assertNull(getPage(page * PagedArticleList.PAGE_SIZE));
+            assertEquals(range(page * PagedArticleList.PAGE_SIZE, PagedArticleList.PAGE_SIZE),
+                    nextEvent());
+        }
+        // the least recently used ones went
+        assertNull(getPage(0));
+    }
+
+    @Test
+    public void changedRowIsReportedAlone() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 30, "a");
+        start();
+        getPage(0);
+
+        upsert(TestArticles.article(new ContentValues(), 3, "b"));
+        assertEquals(Arrays.asList("changed 3 1"), reload());
+        assertEquals("Article 3 b", getPage(3).getTitle(3));
+    }
+
+    @Test
+    public void insertedAndRemovedRowsAreReported() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 30, "a");
+        start();
+        getPage(0);
+
+        // newer than article 0
+        upsert(TestArticles.article(new ContentValues(), -1, "a"));
+        mProvider.resolver.delete(ItemsContract.Items.buildDirUri(),
+                ItemsContract.Items.SERVER_ID + "=?", new String[]{"10"});
+        assertEquals(Arrays.asList("removed 10 1", "inserted 0 1"), reload());
+        assertEquals(30, mList.getCount());
+        assertEquals("Article -1 a", getPage(0).getTitle(0));
+    }
+
+    @Test
+    public void unchangedTableReportsNothing() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 30, "a");
+        start();
+        getPage(0);
+
+        assertEquals(new ArrayList<String>(), reload());
+    }
+
+    @Test
+    public void peekingLoadsNothing() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 500, "a");
+        start();
+
+        assertNull(peekPage(320));
+        assertNotNull(peekPage(0));
+        assertNull(mEvents.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deepPageIsReloadedInPlace() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 1000, "a");
+        start();
+        assertNull(getPage(500));
+        assertEquals(range(500, PagedArticleList.PAGE_SIZE), nextEvent());
+
+        upsert(TestArticles.article(new ContentValues(), 510, "b"));
+        assertEquals(Arrays.asList("changed 510 1"), reload());
+        assertEquals("Article 510 b", getPage(510).getTitle(510));
+    }
+
+    /**
+     * A row added above a deep page doesn't move it on the reload, the page before it shows
+     * that the positions are off once it is loaded, and then everything is read again.
+     */
+    @Test
+    public void rowAddedAboveDeepPageIsFoundScrollingUp() throws Exception {
+        TestArticles.upsert(mProvider.resolver, 1000, "a");
+        start();
+        assertNull(getPage(500));
+        assertEquals(range(500, PagedArticleList.PAGE_SIZE), nextEvent());
+
+        // newer than article 0
+        upsert(TestArticles.article(new ContentValues(), -1, "a"));
+        assertTrue(reload().contains("inserted 0 1"));
+        assertEquals("Article 500 a", getPage(500).getTitle(500));
+
+        assertNull(getPage(450));
+        assertTrue(nextEvent() instanceof DiffUtil.DiffResult);
+        assertEquals("Article 499 a", getPage(500).getTitle(500));
+        assertEquals(1001, mList.getCount());
+    }
+
+    private void start() throws InterruptedException {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mList = new PagedArticleList(mProvider.resolver, new PagedArticleList.Callbacks() {
+                    @Override
+                    public void onDataSetChanged() {
+                        mEvents.add(DATA_SET_CHANGED);
+                    }
+
+                    @Override
+                    public void onRowsChanged(DiffUtil.DiffResult changes) {
+                        mEvents.add(changes);
+                    }
+
+                    @Override
+                    public void onRangeLoaded(int start, int count) {
+                        mEvents.add(range(start, count));
+                    }
+                });
+                mList.start();
+            }
+        });
+        assertEquals(DATA_SET_CHANGED, nextEvent());
+    }
+
+    /** Reloads like a change notification would and returns the row changes reported. */
+    private List<String> reload() throws InterruptedException {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mList.reload();
+            }
+        });
+        final Object event = nextEvent();
+        assertTrue("expected row changes, got " + event, event instanceof DiffUtil.DiffResult);
+
+        final List<String> updates = new ArrayList<String>();
+        ((DiffUtil.DiffResult) event).dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("inserted " + position + " " + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("removed " + position + " " + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                updates.add("moved " + fromPosition + " " + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                updates.add("changed " + position + " " + count);
+            }
+        });
+        return updates;
+    }
+
+    private ArticlePage getPage(final int position) {
+        final ArticlePage[] page = new ArticlePage[1];
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                page[0] = mList.getPage(position);
+            }
+        });
+        return page[0];
+    }
+
+    private ArticlePage peekPage(final int position) {
+        final ArticlePage[] page = new ArticlePage[1];
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                page[0] = mList.peekPage(position);
+            }
+        });
+        return page[0];
+    }
+
+    private void upsert(ContentValues values) {
+        mProvider.resolver.bulkInsert(ItemsContract.Items.buildDirUri(),
+                new ContentValues[]{values});
+    }
+
+    private Object nextEvent() throws InterruptedException {
+        final Object event = mEvents.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("no callback", event);
+        return event;
+    }
+
+    private static String range(int start, int count) {
+        return "range " + start + " " + count;
+    }
+
+    private static void onMainThread(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.xyzreader.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Every query shape the app sends to {@link ItemsProvider} is served by an index, checked on
+ * a freshly created {@link ItemsDatabase}. Add new shapes here along with the code issuing
+ * them.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class QueryPlanTest {
+    private static final String FILE_PREFIX = "test.";
+
+    private RenamingDelegatingContext mContext;
+    private ItemsDatabase mOpenHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                FILE_PREFIX);
+        mContext.deleteDatabase(ItemsDatabase.DATABASE_NAME);
+        mOpenHelper = new ItemsDatabase(mContext);
+        mDb = mOpenHelper.getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mOpenHelper.close();
+        mContext.deleteDatabase(ItemsDatabase.DATABASE_NAME);
+    }
+
+    /** ArticleListActivity */
+    @Test
+    public void list() {
+        verify(ItemsContract.Items.buildDirUri(), ArticleLoader.ListQuery.PROJECTION, null, null,
+                ItemsContract.Items.DEFAULT_SORT);
+    }
+
+    /** ArticleRepository */
+    @Test
+    public void ids() {
+        verify(ItemsContract.Items.buildDirUri(), ArticleLoader.IdQuery.PROJECTION, null, null,
+                ItemsContract.Items.DEFAULT_SORT);
+    }
+
+    /** PagedArticleList */
+    @Test
+    public void pageAfter() {
+        verify(ItemsContract.Items.buildPageAfterUri(0, 0, 1), ArticleLoader.ListQuery.PROJECTION,
+                null, null, ItemsContract.Items.DEFAULT_SORT);
+    }
+
+    /** PagedArticleList */
+    @Test
+    public void count() {
+        verify(ItemsContract.Items.buildDirUri(), new String[]{"count(*)"}, null, null, null);
+    }
+
+    /** ArticleRepository */
+    @Test
+    public void details() {
+        verify(ItemsContract.Items.buildItemUri(1), ArticleLoader.DetailQuery.PROJECTION, null,
+                null, null);
+    }
+
+    /** UpdaterService, before a sync */
+    @Test
+    public void contentHashes() {
+        verify(ItemsContract.Items.buildDirUri(),
+                new String[]{ItemsContract.Items.SERVER_ID, ItemsContract.Items.CONTENT_HASH},
+                null, null, null);
+    }
+
+    /** UpdaterService, pruning */
+    @Test
+    public void deleteByServerId() {
+        verify(ItemsContract.Items.buildDirUri(), null, ItemsContract.Items.SERVER_ID + "=?",
+                new String[]{""}, null);
+    }
+
+    /** bulkInsert, only the plan matters so every argument is a dummy */
+    @Test
+    public void upsert() {
+        final String[] args = new String[ItemsProvider.UpsertQuery.UPDATE_COLUMNS.length];
+        Arrays.fill(args, "");
+        QueryPlanVerifier.verify(mDb, ItemsProvider.UpsertQuery.UPDATE_SQL, args);
+    }
+
+    /** The search uri */
+    @Test
+    public void search() {
+        final String[] args = {ItemsSearch.matchExpression("a")};
+        QueryPlanVerifier.verify(mDb, ItemsSearch.MATCH_SQL, args);
+        QueryPlanVerifier.verify(mDb, ItemsSearch.buildResultSql(ItemsSearch.DEFAULT_PROJECTION,
+                new long[]{1}, 1), args);
+    }
+
+    private void verify(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        final SelectionBuilder builder =
+                ItemsProvider.buildSelection(uri).where(selection, selectionArgs);
+        // the builder maps the columns in place
+        final String[] columns = projection != null ? projection.clone() : null;
+        QueryPlanVerifier.verify(mDb, builder.buildQuery(columns, sortOrder),
+                builder.getSelectionArgs());
+    }
+}
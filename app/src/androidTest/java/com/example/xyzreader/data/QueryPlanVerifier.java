@@ -0,0 +1,45 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} on a query and rejects plans that read the whole table
+ * without an index or sort the result in a temporary b-tree. See {@link QueryPlanTest}.
+ */
+class QueryPlanVerifier {
+    private QueryPlanVerifier() {
+    }
+
+    /**
+     * @throws AssertionError if the plan of {@code sql} contains a full table scan or a
+     *                        temporary b-tree
+     */
+    static void verify(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        final List<String> plan = explain(db, sql, selectionArgs);
+        for (String step : plan) {
+            // "SCAN TABLE items" (or "SCAN items" on newer SQLite) without "USING ... INDEX"
+            final boolean fullScan = step.startsWith("SCAN") && !step.contains("INDEX");
+            if (fullScan || step.contains("TEMP B-TREE")) {
+                throw new AssertionError("Bad query plan " + plan + " for: " + sql);
+            }
+        }
+    }
+
+    private static List<String> explain(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        final List<String> plan = new ArrayList<String>();
+        final Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            final int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
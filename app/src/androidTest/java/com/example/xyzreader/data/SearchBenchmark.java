@@ -0,0 +1,104 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Latency of {@link ItemsSearch#search} on a table of {@value #ARTICLES} articles, for the
+ * queries a user types: a prefix while typing, and several words. Ranking alone is timed by
+ * asking for the id only, then the same search with the snippets the result rows show. The
+ * figures go to logcat under {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SearchBenchmark {
+    private static final String TAG = "SearchBenchmark";
+    private static final int ARTICLES = 50000;
+    private static final int RUNS = 10;
+
+    private static final String[] ID_ONLY = {ItemsContract.Items._ID};
+
+    private TestProvider mProvider;
+    private ItemsDatabase mOpenHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mProvider = new TestProvider();
+        TestArticles.upsert(mProvider.resolver, ARTICLES, "a");
+        assertEquals(ARTICLES, TestArticles.count(mProvider.resolver));
+        mOpenHelper = new ItemsDatabase(mProvider.context);
+        mDb = mOpenHelper.getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mOpenHelper.close();
+        mProvider.delete();
+    }
+
+    @Test
+    public void typicalQueries() {
+        // a prefix of a word every body has, of one in some titles, and whole words
+        benchmark("lor");
+        benchmark("artic");
+        benchmark("author 7");
+        benchmark("dolor magna");
+        benchmark("article 4999 lorem");
+    }
+
+    private void benchmark(String query) {
+        final long[] ranking = new long[RUNS];
+        final long[] snippets = new long[RUNS];
+        int hits = 0;
+        // warms up the page cache, not counted
+        search(query, ID_ONLY);
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            search(query, ID_ONLY);
+            ranking[run] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            hits = search(query, ItemsSearch.DEFAULT_PROJECTION);
+            snippets[run] = System.nanoTime() - start;
+        }
+        assertTrue("no results for " + query, hits > 0);
+        report(query, hits, "ranked", ranking);
+        report(query, hits, "ranked with snippets", snippets);
+    }
+
+    /** Runs the search the way the search uri does and reads every row, returns the count. */
+    private int search(String query, String[] projection) {
+        final Cursor cursor = ItemsSearch.search(mDb, query, projection,
+                ArticleSearch.RESULT_LIMIT, null);
+        try {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < projection.length; i++) {
+                    cursor.getString(i);
+                }
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void report(String query, int hits, String what, long[] nanos) {
+        Arrays.sort(nanos);
+        Log.i(TAG, String.format("\"%s\", %d results %s: median %.1f ms, max %.1f ms", query,
+                hits, what, nanos[nanos.length / 2] / 1e6, nanos[nanos.length - 1] / 1e6));
+    }
+}
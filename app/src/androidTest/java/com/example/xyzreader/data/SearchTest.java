@@ -0,0 +1,185 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Ranking of the search uri and cancellation of {@link ArticleSearch}, on a filled table. */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class SearchTest {
+    private static final int FILLER = 500;
+    private static final String TITLE_HIT = "title hit";
+    private static final String AUTHOR_HIT = "author hit";
+    private static final String BODY_HIT = "body hit";
+
+    private TestProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = new TestProvider();
+        TestArticles.upsert(mProvider.resolver, FILLER, "a");
+
+        // newest first, so the order of the results can't come from the dates
+        final ContentValues body = TestArticles.article(new ContentValues(), FILLER, "a");
+        body.put(ItemsContract.Items.SERVER_ID, BODY_HIT);
+        body.put(ItemsContract.Items.BODY, "<p>Spotted a zebra near the river.</p>");
+        final ContentValues author = TestArticles.article(new ContentValues(), FILLER + 1, "a");
+        author.put(ItemsContract.Items.SERVER_ID, AUTHOR_HIT);
+        author.put(ItemsContract.Items.AUTHOR, "Zebra Jones");
+        final ContentValues title = TestArticles.article(new ContentValues(), FILLER + 2, "a");
+        title.put(ItemsContract.Items.SERVER_ID, TITLE_HIT);
+        title.put(ItemsContract.Items.TITLE, "The zebra crossing");
+        mProvider.resolver.bulkInsert(ItemsContract.Items.buildDirUri(),
+                new ContentValues[]{body, author, title});
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.delete();
+    }
+
+    @Test
+    public void titleOutranksAuthorOutranksBody() {
+        assertEquals(Arrays.asList(TITLE_HIT, AUTHOR_HIT, BODY_HIT), search("zebra"));
+    }
+
+    @Test
+    public void lastWordMatchesAsPrefix() {
+        assertEquals(Arrays.asList(TITLE_HIT, AUTHOR_HIT, BODY_HIT), search("zeb"));
+    }
+
+    @Test
+    public void everyWordHasToMatch() {
+        assertEquals(Arrays.asList(TITLE_HIT), search("zebra cross"));
+        assertEquals(new ArrayList<String>(), search("zebra giraffe"));
+    }
+
+    @Test
+    public void limitKeepsBestMatches() {
+        final Cursor cursor = mProvider.resolver.query(
+                ItemsContract.Items.buildSearchUri("lorem", 10),
+                ArticleLoader.SearchQuery.PROJECTION, null, null, null);
+        try {
+            assertEquals(10, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void cancelledSearchThrows() {
+        final ItemsDatabase openHelper = new ItemsDatabase(mProvider.context);
+        try {
+            final SQLiteDatabase db = openHelper.getReadableDatabase();
+            final CancellationSignal signal = new CancellationSignal();
+            signal.cancel();
+            ItemsSearch.search(db, "zebra", null, 10, signal).close();
+            fail("search ran despite the cancellation");
+        } catch (OperationCanceledException expected) {
+        } finally {
+            openHelper.close();
+        }
+    }
+
+    /**
+     * Types out a query a letter at a time, around the debounce delay, so queries are
+     * dropped before they start and cancelled while they run. Only results for the text as
+     * it is at that moment may come back, and the last text has to get its results.
+     */
+    @Test
+    public void resultsOnlyForLatestText() throws Exception {
+        final String text = "zebra cross";
+        final List<String> stale = new ArrayList<String>();
+        final String[] current = new String[1];
+        final int[] lastCount = {-1};
+        final CountDownLatch finalResults = new CountDownLatch(1);
+
+        final ArticleSearch search = createOnMainThread(new ArticleSearch.Callbacks() {
+            @Override
+            public void onSearchResults(String query, Cursor results) {
+                if (!query.equals(current[0])) {
+                    stale.add(query);
+                }
+                if (results != null) {
+                    if (query.equals(text)) {
+                        lastCount[0] = results.getCount();
+                        finalResults.countDown();
+                    }
+                    results.close();
+                }
+            }
+        });
+
+        for (int end = 1; end <= text.length(); end++) {
+            final String typed = text.substring(0, end);
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    current[0] = typed;
+                    search.setQuery(typed);
+                }
+            });
+            // alternately just under and just over the debounce delay
+            SystemClock.sleep(ArticleSearch.DEBOUNCE_MILLIS + (end % 2 == 0 ? 20 : -20));
+        }
+
+        assertTrue(finalResults.await(5, TimeUnit.SECONDS));
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                search.close();
+            }
+        });
+        assertEquals(new ArrayList<String>(), stale);
+        assertEquals(1, lastCount[0]);
+    }
+
+    private ArticleSearch createOnMainThread(final ArticleSearch.Callbacks callbacks) {
+        final ArticleSearch[] search = new ArticleSearch[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                search[0] = new ArticleSearch(mProvider.resolver, callbacks);
+            }
+        });
+        return search[0];
+    }
+
+    /** Server ids of the results, best first. */
+    private List<String> search(String query) {
+        final Cursor cursor = mProvider.resolver.query(
+                ItemsContract.Items.buildSearchUri(query, ArticleSearch.RESULT_LIMIT),
+                new String[]{ItemsContract.Items.SERVER_ID}, null, null, null);
+        final List<String> ids = new ArrayList<String>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/** Made up articles, shaped like the ones in the feed. */
+final class TestArticles {
+    /** Rows per bulkInsert, as UpdaterService writes them. */
+    static final int BATCH_SIZE = 50;
+
+    /** Publishing date of article 0, the newest. */
+    private static final long NEWEST_DATE = 1490000000000L;
+    private static final long MINUTE = 60 * 1000;
+
+    private static final String PARAGRAPH = "<p>Lorem ipsum dolor sit amet, consectetur"
+            + " adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna"
+            + " aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris nisi"
+            + " ut aliquip ex ea commodo consequat.</p>\n";
+
+    private TestArticles() {
+    }
+
+    /**
+     * Fills {@code values} with article {@code index}, one minute older than the one before.
+     * Another {@code revision} of the same article keeps its server id and changes its content.
+     */
+    static ContentValues article(ContentValues values, int index, String revision) {
+        values.clear();
+        values.put(ItemsContract.Items.SERVER_ID, Integer.toString(index));
+        values.put(ItemsContract.Items.TITLE, "Article " + index + " " + revision);
+        values.put(ItemsContract.Items.AUTHOR, "Author " + (index % 20));
+        values.put(ItemsContract.Items.BODY, PARAGRAPH + PARAGRAPH + revision);
+        values.put(ItemsContract.Items.THUMB_URL, "https://example.com/thumb/" + index);
+        values.put(ItemsContract.Items.PHOTO_URL, "https://example.com/photo/" + index);
+        values.put(ItemsContract.Items.ASPECT_RATIO, 1.5f);
+        values.put(ItemsContract.Items.PUBLISHED_DATE, NEWEST_DATE - index * MINUTE);
+        values.put(ItemsContract.Items.EXCERPT, "Lorem ipsum dolor sit amet " + revision);
+        values.put(ItemsContract.Items.CONTENT_HASH, index + "/" + revision);
+        return values;
+    }
+
+    /** Upserts articles 0 to {@code count - 1} in batches, the way a sync does. */
+    static void upsert(ContentResolver resolver, int count, String revision) {
+        final ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new ContentValues();
+        }
+        int index = 0;
+        while (index < count) {
+            final int size = Math.min(BATCH_SIZE, count - index);
+            final ContentValues[] rows = size == BATCH_SIZE ? batch : new ContentValues[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = article(batch[i], index++, revision);
+            }
+            resolver.bulkInsert(ItemsContract.Items.buildDirUri(), rows);
+        }
+    }
+
+    static int count(ContentResolver resolver) {
+        final Cursor cursor = resolver.query(ItemsContract.Items.buildDirUri(),
+                new String[]{"count(*)"}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.xyzreader.data;
+
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.support.test.InstrumentationRegistry;
+import android.test.IsolatedContext;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * An {@link ItemsProvider} on a database file of its own, behind a resolver of its own, so a
+ * test neither sees nor touches the app's articles. Change notifications go nowhere.
+ */
+final class TestProvider {
+    private static final String FILE_PREFIX = "test.";
+
+    final Context context;
+    final MockContentResolver resolver;
+    final ItemsProvider provider;
+
+    TestProvider() {
+        final RenamingDelegatingContext files = new RenamingDelegatingContext(
+                InstrumentationRegistry.getTargetContext(), FILE_PREFIX);
+        // whatever an earlier run left behind
+        files.deleteDatabase(ItemsDatabase.DATABASE_NAME);
+
+        resolver = new MockContentResolver();
+        context = new IsolatedContext(resolver, files);
+
+        final ProviderInfo info = new ProviderInfo();
+        info.authority = ItemsContract.CONTENT_AUTHORITY;
+        provider = new ItemsProvider();
+        provider.attachInfo(context, info);
+        resolver.addProvider(ItemsContract.CONTENT_AUTHORITY, provider);
+    }
+
+    /** Closes the database and deletes its file. */
+    void delete() {
+        provider.shutdown();
+        context.deleteDatabase(ItemsDatabase.DATABASE_NAME);
+    }
+}
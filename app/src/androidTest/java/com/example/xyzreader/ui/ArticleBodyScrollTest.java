@@ -0,0 +1,346 @@
+package com.example.xyzreader.ui;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.view.ViewPager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Html;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.example.xyzreader.R;
+import com.example.xyzreader.data.ItemsContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A long article, about 100 KB of HTML, on the detail screen: the frames that took longer than
+ * {@link #SLOW_FRAME_PERIODS} display refreshes while flinging through it, and the time from
+ * binding the body to its first draw, against the single TextView the body used to be. The
+ * figures go to logcat under {@value #TAG}.
+ * <p>
+ * The article is written to the app's own database and deleted again afterwards.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ArticleBodyScrollTest {
+    private static final String TAG = "ArticleBodyScrollTest";
+    private static final String SERVER_ID = "scroll-test";
+
+    private static final int PARAGRAPHS = 270;
+    private static final String PARAGRAPH = "Lorem ipsum dolor sit amet, consectetur adipiscing"
+            + " elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut enim"
+            + " ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip ex ea"
+            + " commodo consequat. <a href=\"https://example.com\">Duis aute irure</a> dolor in"
+            + " reprehenderit in voluptate velit esse cillum dolore eu fugiat nulla pariatur.";
+
+    private static final long TIMEOUT_MILLIS = 10000;
+    /** Time for a fling to run before the next one. */
+    private static final long FLING_MILLIS = 400;
+    private static final float SLOW_FRAME_PERIODS = 2.5f;
+    private static final float MAX_SLOW_FRAME_SHARE = 0.1f;
+
+    @Rule
+    public final ActivityTestRule<ArticleDetailActivity> mActivityRule =
+            new ActivityTestRule<ArticleDetailActivity>(ArticleDetailActivity.class, false, false);
+
+    private ContentResolver mResolver;
+    private long mItemId;
+    private String mBody;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        deleteArticle();
+
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < PARAGRAPHS; i++) {
+            body.append("<p>").append(i).append(". ").append(PARAGRAPH).append("</p>\n\n");
+        }
+        final ContentValues values = new ContentValues();
+        values.put(ItemsContract.Items.SERVER_ID, SERVER_ID);
+        values.put(ItemsContract.Items.TITLE, "A long article");
+        values.put(ItemsContract.Items.AUTHOR, "Test");
+        mBody = body.toString();
+        values.put(ItemsContract.Items.BODY, mBody);
+        values.put(ItemsContract.Items.THUMB_URL, "");
+        values.put(ItemsContract.Items.PHOTO_URL, "");
+        values.put(ItemsContract.Items.ASPECT_RATIO, 1.5f);
+        values.put(ItemsContract.Items.PUBLISHED_DATE, System.currentTimeMillis());
+        values.put(ItemsContract.Items.CONTENT_HASH, SERVER_ID);
+        mResolver.bulkInsert(ItemsContract.Items.buildDirUri(), new ContentValues[]{values});
+
+        final Cursor cursor = mResolver.query(ItemsContract.Items.buildDirUri(),
+                new String[]{ItemsContract.Items._ID}, ItemsContract.Items.SERVER_ID + "=?",
+                new String[]{SERVER_ID}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            mItemId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteArticle();
+    }
+
+    @Test
+    public void flingThroughLongBody() {
+        final ArticleDetailActivity activity = mActivityRule.launchActivity(
+                new Intent(Intent.ACTION_VIEW, ItemsContract.Items.buildItemUri(mItemId)));
+        final RecyclerView list = awaitBody(activity);
+        final float refreshRate =
+                activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+
+        final FrameRecorder frames = new FrameRecorder();
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                frames.start();
+            }
+        });
+        final long deadline = SystemClock.elapsedRealtime() + 6 * TIMEOUT_MILLIS;
+        while (canScrollDown(list) && SystemClock.elapsedRealtime() < deadline) {
+            onMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    list.fling(0, list.getMaxFlingVelocity());
+                }
+            });
+            SystemClock.sleep(FLING_MILLIS);
+        }
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                frames.stop();
+            }
+        });
+
+        assertFalse("never reached the end of the body", canScrollDown(list));
+        final long slowNanos = (long) (SLOW_FRAME_PERIODS * 1000000000L / refreshRate);
+        final int total = frames.intervals.size();
+        int slow = 0;
+        long worst = 0;
+        for (long interval : frames.intervals) {
+            if (interval > slowNanos) {
+                slow++;
+            }
+            worst = Math.max(worst, interval);
+        }
+        Log.i(TAG, String.format("%d of %d frames slow, worst %d ms, %d rows",
+                slow, total, worst / 1000000, list.getAdapter().getItemCount()));
+        assertTrue("no frames drawn", total > 0);
+        assertTrue(slow + " of " + total + " frames slow", slow <= total * MAX_SLOW_FRAME_SHARE);
+    }
+
+    /**
+     * Bind to first draw of the body, measured the same way as the page does, on top of the
+     * detail screen so both paths get its window and width. The single TextView is how the
+     * body was shown before it was split into chunks: parsed on the main thread and laid out
+     * whole inside a scroll view.
+     */
+    @Test
+    public void firstDrawOfLongBody() throws InterruptedException {
+        final ArticleDetailActivity activity = mActivityRule.launchActivity(
+                new Intent(Intent.ACTION_VIEW, ItemsContract.Items.buildItemUri(mItemId)));
+        awaitBody(activity);
+
+        final long[] singleTextView = new long[1];
+        final CountDownLatch singleDrawn = new CountDownLatch(1);
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                final ScrollView scrollView = new ScrollView(activity);
+                final TextView body = (TextView) LayoutInflater.from(activity)
+                        .inflate(R.layout.article_detail_paragraph, scrollView, false);
+                body.setText(Html.fromHtml(mBody));
+                scrollView.addView(body);
+                showOnTop(activity, scrollView, start, singleTextView, singleDrawn);
+            }
+        });
+        assertTrue("single TextView never drawn",
+                singleDrawn.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        final long[] chunks = new long[1];
+        final CountDownLatch chunksDrawn = new CountDownLatch(1);
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                // a content hash of its own, so the parsed body isn't taken from the cache
+                ArticleBodyRenderer.getInstance().render(mItemId, "first-draw-" + start, mBody,
+                        new ArticleBodyRenderer.Callback() {
+                            @Override
+                            public void onBodyRendered(long itemId,
+                                    List<CharSequence> paragraphs) {
+                                final RecyclerView list = new RecyclerView(activity);
+                                list.setLayoutManager(new LinearLayoutManager(activity));
+                                list.setAdapter(new ChunkAdapter(paragraphs));
+                                showOnTop(activity, list, start, chunks, chunksDrawn);
+                            }
+                        });
+            }
+        });
+        assertTrue("chunks never drawn", chunksDrawn.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        Log.i(TAG, String.format("%d chars of HTML, first draw after %d ms as one TextView,"
+                + " %d ms in chunks", mBody.length(), singleTextView[0], chunks[0]));
+    }
+
+    /**
+     * Puts {@code view} over the whole screen and has the time from {@code start} to its first
+     * draw written to {@code millis}.
+     */
+    private static void showOnTop(ArticleDetailActivity activity, final View view,
+            final long start, final long[] millis, final CountDownLatch drawn) {
+        view.setBackgroundColor(0xFFFFFFFF);
+        view.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        view.getViewTreeObserver().removeOnPreDrawListener(this);
+                        millis[0] = SystemClock.elapsedRealtime() - start;
+                        drawn.countDown();
+                        return true;
+                    }
+                });
+        ((FrameLayout) activity.findViewById(android.R.id.content)).addView(view,
+                new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                        ViewGroup.LayoutParams.MATCH_PARENT));
+    }
+
+    /** The body list of the page shown, once the body has been rendered into it. */
+    private RecyclerView awaitBody(final ArticleDetailActivity activity) {
+        final RecyclerView[] list = new RecyclerView[1];
+        final long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (list[0] == null && SystemClock.elapsedRealtime() < deadline) {
+            onMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    final ViewPager pager = (ViewPager) activity.findViewById(R.id.pager);
+                    for (int i = 0; i < pager.getChildCount(); i++) {
+                        final View page = pager.getChildAt(i);
+                        if (page.getLeft() != pager.getScrollX()) {
+                            continue;
+                        }
+                        final RecyclerView body =
+                                (RecyclerView) page.findViewById(R.id.article_body_list);
+                        // the header and at least one chunk
+                        if (body != null && body.getAdapter().getItemCount() > 1) {
+                            list[0] = body;
+                        }
+                    }
+                }
+            });
+            SystemClock.sleep(100);
+        }
+        assertNotNull("body not shown", list[0]);
+        return list[0];
+    }
+
+    private static boolean canScrollDown(final RecyclerView list) {
+        final boolean[] result = new boolean[1];
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = list.canScrollVertically(1);
+            }
+        });
+        return result[0];
+    }
+
+    private void deleteArticle() {
+        mResolver.delete(ItemsContract.Items.buildDirUri(),
+                ItemsContract.Items.SERVER_ID + "=?", new String[]{SERVER_ID});
+    }
+
+    private static void onMainThread(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    /** A chunk of paragraphs per row, like the page's body list without the header. */
+    private static class ChunkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        private final List<CharSequence> mChunks;
+
+        ChunkAdapter(List<CharSequence> chunks) {
+            mChunks = chunks;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new RecyclerView.ViewHolder(LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.article_detail_paragraph, parent, false)) {
+            };
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            ((TextView) holder.itemView).setText(mChunks.get(position));
+        }
+
+        @Override
+        public int getItemCount() {
+            return mChunks.size();
+        }
+    }
+
+    /** Times between consecutive frames, asking for every frame. Main thread only. */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        final List<Long> intervals = new ArrayList<Long>();
+        private long mLastFrameNanos;
+        private boolean mRunning;
+
+        void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameNanos != 0) {
+                intervals.add(frameTimeNanos - mLastFrameNanos);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
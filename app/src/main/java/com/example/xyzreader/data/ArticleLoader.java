@@ -5,31 +5,61 @@ import android.content.CursorLoader;
 import android.net.Uri;
 
 /**
- * Helper for loading a list of articles or a single article.
+ * Helper for loading a list of articles, and the projections of the article queries. The list
+ * only carries what a list row needs; the rest of an article is read for the one being viewed,
+ * see {@link ArticleRepository}.
  */
 public class ArticleLoader extends CursorLoader {
-    public static ArticleLoader newAllArticlesInstance(Context context) {
-        return new ArticleLoader(context, ItemsContract.Items.buildDirUri());
+    private ArticleLoader(Context context, Uri uri, String[] projection, String sortOrder) {
+        super(context, uri, projection, null, null, sortOrder);
     }
 
-    public static ArticleLoader newInstanceForItemId(Context context, long itemId) {
-        return new ArticleLoader(context, ItemsContract.Items.buildItemUri(itemId));
+    /**
+     * The order of the articles alone, for the detail pager.
+     */
+    public interface IdQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+        };
+
+        int _ID = 0;
     }
 
-    private ArticleLoader(Context context, Uri uri) {
-        super(context, uri, Query.PROJECTION, null, null, ItemsContract.Items.DEFAULT_SORT);
+    /**
+     * Article metadata and excerpt, all of it served from the list index.
+     */
+    public interface ListQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items._ID,
+                ItemsContract.Items.TITLE,
+                ItemsContract.Items.PUBLISHED_DATE,
+                ItemsContract.Items.AUTHOR,
+                ItemsContract.Items.THUMB_URL,
+                ItemsContract.Items.ASPECT_RATIO,
+                ItemsContract.Items.EXCERPT,
+        };
+
+        int _ID = 0;
+        int TITLE = 1;
+        int PUBLISHED_DATE = 2;
+        int AUTHOR = 3;
+        int THUMB_URL = 4;
+        int ASPECT_RATIO = 5;
+        int EXCERPT = 6;
     }
 
-    public interface Query {
+    /**
+     * Search results, see {@link ItemsContract.Items#buildSearchUri}.
+     */
+    public interface SearchQuery {
         String[] PROJECTION = {
                 ItemsContract.Items._ID,
                 ItemsContract.Items.TITLE,
                 ItemsContract.Items.PUBLISHED_DATE,
                 ItemsContract.Items.AUTHOR,
                 ItemsContract.Items.THUMB_URL,
-                ItemsContract.Items.PHOTO_URL,
                 ItemsContract.Items.ASPECT_RATIO,
-                ItemsContract.Items.BODY,
+                ItemsContract.Items.SEARCH_SNIPPET,
         };
 
         int _ID = 0;
@@ -37,8 +67,34 @@ public class ArticleLoader extends CursorLoader {
         int PUBLISHED_DATE = 2;
         int AUTHOR = 3;
         int THUMB_URL = 4;
+        int ASPECT_RATIO = 5;
+        int SEARCH_SNIPPET = 6;
+    }
+
+    /**
+     * What an article page shows, see {@link ArticleRepository.Details}.
+     */
+    public interface DetailQuery {
+        String[] PROJECTION = {
+                ItemsContract.Items.TITLE,
+                ItemsContract.Items.AUTHOR,
+                ItemsContract.Items.PUBLISHED_DATE,
+                ItemsContract.Items.THUMB_URL,
+                ItemsContract.Items.ASPECT_RATIO,
+                ItemsContract.Items.PHOTO_URL,
+                ItemsContract.Items.BODY,
+                ItemsContract.Items.DARK_MUTED_COLOR,
+                ItemsContract.Items.CONTENT_HASH,
+        };
+
+        int TITLE = 0;
+        int AUTHOR = 1;
+        int PUBLISHED_DATE = 2;
+        int THUMB_URL = 3;
+        int ASPECT_RATIO = 4;
         int PHOTO_URL = 5;
-        int ASPECT_RATIO = 6;
-        int BODY = 7;
+        int BODY = 6;
+        int DARK_MUTED_COLOR = 7;
+        int CONTENT_HASH = 8;
     }
 }
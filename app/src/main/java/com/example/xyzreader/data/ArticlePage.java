@@ -0,0 +1,138 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.HashMap;
+
+/**
+ * One page of the article list in {@link ArticleLoader.ListQuery} form, copied out of its
+ * cursor into a column per array. Immutable, so it can be built on a worker thread and read
+ * from any thread without locking, and reading a row is an array access rather than a cursor
+ * seek.
+ * <p>
+ * Rows are addressed by their position in the whole list.
+ */
+public final class ArticlePage {
+    private final int mFirstPosition;
+    private final long[] mIds;
+    private final long[] mPublishedDates;
+    private final float[] mAspectRatios;
+    private final String[] mTitles;
+    private final String[] mAuthors;
+    private final String[] mThumbUrls;
+    private final String[] mExcerpts;
+
+    private ArticlePage(int firstPosition, int count) {
+        mFirstPosition = firstPosition;
+        mIds = new long[count];
+        mPublishedDates = new long[count];
+        mAspectRatios = new float[count];
+        mTitles = new String[count];
+        mAuthors = new String[count];
+        mThumbUrls = new String[count];
+        mExcerpts = new String[count];
+    }
+
+    /**
+     * Copies every row of {@code cursor}, which holds the list from {@code firstPosition} on.
+     * Titles and authors go through {@code strings}, so a page re-read after a change and
+     * articles by the same author share one instance; see {@link Interner}.
+     */
+    static ArticlePage from(Cursor cursor, int firstPosition, Interner strings) {
+        final ArticlePage page = new ArticlePage(firstPosition, cursor.getCount());
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            page.mIds[i] = cursor.getLong(ArticleLoader.ListQuery._ID);
+            page.mPublishedDates[i] = cursor.getLong(ArticleLoader.ListQuery.PUBLISHED_DATE);
+            page.mAspectRatios[i] = cursor.getFloat(ArticleLoader.ListQuery.ASPECT_RATIO);
+            page.mTitles[i] = strings.intern(cursor.getString(ArticleLoader.ListQuery.TITLE));
+            page.mAuthors[i] = strings.intern(cursor.getString(ArticleLoader.ListQuery.AUTHOR));
+            page.mThumbUrls[i] = cursor.getString(ArticleLoader.ListQuery.THUMB_URL);
+            page.mExcerpts[i] = cursor.getString(ArticleLoader.ListQuery.EXCERPT);
+        }
+        return page;
+    }
+
+    public int getFirstPosition() {
+        return mFirstPosition;
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    /** Whether the row at {@code position} of the list is in this page. */
+    public boolean contains(int position) {
+        return position >= mFirstPosition && position < mFirstPosition + mIds.length;
+    }
+
+    public long getId(int position) {
+        return mIds[position - mFirstPosition];
+    }
+
+    public long getPublishedDate(int position) {
+        return mPublishedDates[position - mFirstPosition];
+    }
+
+    public float getAspectRatio(int position) {
+        return mAspectRatios[position - mFirstPosition];
+    }
+
+    public String getTitle(int position) {
+        return mTitles[position - mFirstPosition];
+    }
+
+    public String getAuthor(int position) {
+        return mAuthors[position - mFirstPosition];
+    }
+
+    public String getThumbUrl(int position) {
+        return mThumbUrls[position - mFirstPosition];
+    }
+
+    public String getExcerpt(int position) {
+        return mExcerpts[position - mFirstPosition];
+    }
+
+    /** Whether the row at {@code position} reads the same here and at {@code otherPosition}. */
+    boolean isSameRow(int position, ArticlePage other, int otherPosition) {
+        final int i = position - mFirstPosition;
+        final int j = otherPosition - other.mFirstPosition;
+        return mIds[i] == other.mIds[j]
+                && mPublishedDates[i] == other.mPublishedDates[j]
+                && Float.compare(mAspectRatios[i], other.mAspectRatios[j]) == 0
+                && TextUtils.equals(mTitles[i], other.mTitles[j])
+                && TextUtils.equals(mAuthors[i], other.mAuthors[j])
+                && TextUtils.equals(mThumbUrls[i], other.mThumbUrls[j])
+                && TextUtils.equals(mExcerpts[i], other.mExcerpts[j]);
+    }
+
+    /**
+     * Hands out one instance per distinct string. Not thread safe; pages are built on one
+     * thread. Forgets everything once it holds {@code maxSize} strings, so it never outgrows
+     * what a few pages need.
+     */
+    static class Interner {
+        private final HashMap<String, String> mStrings = new HashMap<String, String>();
+        private final int mMaxSize;
+
+        Interner(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        String intern(String string) {
+            if (string == null) {
+                return null;
+            }
+            final String interned = mStrings.get(string);
+            if (interned != null) {
+                return interned;
+            }
+            if (mStrings.size() >= mMaxSize) {
+                mStrings.clear();
+            }
+            mStrings.put(string, string);
+            return string;
+        }
+    }
+}
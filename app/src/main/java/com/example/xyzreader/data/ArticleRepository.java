@@ -0,0 +1,376 @@
+package com.example.xyzreader.data;
+
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LongSparseArray;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The articles of the detail pager, shared by the pager and its pages so a page costs no query
+ * of its own. The pager only needs the order of the articles, so only their ids are read, from
+ * the list index, and read again when the table changes.
+ * <p>
+ * What a page shows, see {@link Details}, is read an article at a time with
+ * {@link #loadDetails}. The latest few are kept, which lets the pages next to the one shown be
+ * fetched ahead.
+ * <p>
+ * Must be used from the main thread. Queries run on a single background thread.
+ */
+public class ArticleRepository {
+    /** Characters of bodies kept with their details, a few long articles' worth. */
+    private static final int MAX_CACHED_BODY_CHARS = 256 * 1024;
+    /** Changes arriving this close together are read in one reload. */
+    private static final long RELOAD_DELAY_MS = 100;
+
+    public interface Listener {
+        /** The list was read again, positions and details may all have changed. */
+        void onArticlesChanged();
+    }
+
+    public interface DetailsCallback {
+        /** @param details null if the article is gone */
+        void onDetailsLoaded(long itemId, Details details);
+    }
+
+    /** Details on their way, see {@link #loadDetails}. */
+    public static class Request {
+        private volatile boolean mCancelled;
+
+        /** The callback won't be called. */
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+
+    /** What a page shows. Immutable. */
+    public static final class Details {
+        private final String mTitle;
+        private final String mAuthor;
+        private final long mPublishedDate;
+        private final String mThumbUrl;
+        private final float mAspectRatio;
+        private final String mPhotoUrl;
+        private final String mContentHash;
+        private final String mBody;
+        private final boolean mHasMutedColor;
+        private final int mMutedColor;
+
+        private Details(String title, String author, long publishedDate, String thumbUrl,
+                float aspectRatio, String photoUrl, String contentHash, String body,
+                boolean hasMutedColor, int mutedColor) {
+            mTitle = title;
+            mAuthor = author;
+            mPublishedDate = publishedDate;
+            mThumbUrl = thumbUrl;
+            mAspectRatio = aspectRatio;
+            mPhotoUrl = photoUrl;
+            mContentHash = contentHash;
+            mBody = body;
+            mHasMutedColor = hasMutedColor;
+            mMutedColor = mutedColor;
+        }
+
+        private Details withMutedColor(int color) {
+            return new Details(mTitle, mAuthor, mPublishedDate, mThumbUrl, mAspectRatio,
+                    mPhotoUrl, mContentHash, mBody, true, color);
+        }
+
+        public String getTitle() {
+            return mTitle;
+        }
+
+        public String getAuthor() {
+            return mAuthor;
+        }
+
+        public long getPublishedDate() {
+            return mPublishedDate;
+        }
+
+        /** The photo the list shows, see {@link #getPhotoUrl}. */
+        public String getThumbUrl() {
+            return mThumbUrl;
+        }
+
+        public float getAspectRatio() {
+            return mAspectRatio;
+        }
+
+        public String getPhotoUrl() {
+            return mPhotoUrl;
+        }
+
+        public String getContentHash() {
+            return mContentHash;
+        }
+
+        /** The body as HTML. */
+        public String getBody() {
+            return mBody;
+        }
+
+        /** False until the color has been worked out from the photo. */
+        public boolean hasMutedColor() {
+            return mHasMutedColor;
+        }
+
+        public int getMutedColor() {
+            return mMutedColor;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    /** Article ids in {@link ItemsContract.Items#DEFAULT_SORT} order, null until read. */
+    private long[] mIds;
+    /** Positions in {@link #mIds} by article id. */
+    private LongSparseArray<Integer> mPositions;
+    /**
+     * Bumped on every reload; details read before it aren't kept, and reloads the worker hasn't
+     * started yet are skipped. Written on the main thread, under mDetails.
+     */
+    private volatile int mGeneration;
+    private boolean mClosed;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            reload();
+        }
+    };
+
+    /** Written on the worker thread when read, dropped on the main thread on a change. */
+    private final LruCache<Long, Details> mDetails =
+            new LruCache<Long, Details>(MAX_CACHED_BODY_CHARS) {
+        @Override
+        protected int sizeOf(Long itemId, Details details) {
+            return 1 + (details.mBody != null ? details.mBody.length() : 0);
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.removeCallbacks(mReload);
+            mHandler.postDelayed(mReload, RELOAD_DELAY_MS);
+        }
+    };
+
+    public ArticleRepository(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /** Reads the list and starts following changes. */
+    public void start() {
+        mResolver.registerContentObserver(ItemsContract.Items.buildDirUri(), true, mObserver);
+        reload();
+    }
+
+    public void close() {
+        mClosed = true;
+        mResolver.unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mReload);
+        mExecutor.shutdownNow();
+        mListeners.clear();
+        mDetails.evictAll();
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Whether the list has been read. Until then it is empty. */
+    public boolean isLoaded() {
+        return mIds != null;
+    }
+
+    public int getCount() {
+        return mIds != null ? mIds.length : 0;
+    }
+
+    /** Id of the article at {@code position}, which must be below {@link #getCount()}. */
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    /** Position of the article in the list, -1 if it isn't there (yet). */
+    public int findPosition(long itemId) {
+        if (mPositions == null) {
+            return -1;
+        }
+        final Integer position = mPositions.get(itemId);
+        return position != null ? position : -1;
+    }
+
+    private void reload() {
+        if (mClosed) {
+            return;
+        }
+        final int generation;
+        synchronized (mDetails) {
+            generation = ++mGeneration;
+            mDetails.evictAll();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    // another change came in, the reload queued for it reads everything
+                    return;
+                }
+                final long[] ids = queryIds();
+                final LongSparseArray<Integer> positions = new LongSparseArray<Integer>();
+                if (ids != null) {
+                    for (int position = 0; position < ids.length; position++) {
+                        positions.put(ids[position], position);
+                    }
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReloaded(generation, ids, positions);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onReloaded(int generation, long[] ids, LongSparseArray<Integer> positions) {
+        if (generation != mGeneration || mClosed || ids == null) {
+            return;
+        }
+        mIds = ids;
+        mPositions = positions;
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onArticlesChanged();
+        }
+    }
+
+    /** The details of the article if they are cached, null otherwise. */
+    public Details getCachedDetails(long itemId) {
+        return mDetails.get(itemId);
+    }
+
+    /**
+     * Reads the details of the article in the background, unless they are cached, and hands
+     * them to {@code callback} on the main thread, unless the returned request is cancelled
+     * first. Pass a null callback to only have them cached.
+     */
+    public Request loadDetails(final long itemId, final DetailsCallback callback) {
+        final Request request = new Request();
+        if (mClosed) {
+            return request;
+        }
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.mCancelled) {
+                    return;
+                }
+                Details details = mDetails.get(itemId);
+                if (details == null) {
+                    details = queryDetails(itemId);
+                    synchronized (mDetails) {
+                        if (details != null && generation == mGeneration) {
+                            mDetails.put(itemId, details);
+                        }
+                    }
+                }
+                if (callback == null) {
+                    return;
+                }
+                final Details loaded = details;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.mCancelled && !mClosed) {
+                            callback.onDetailsLoaded(itemId, loaded);
+                        }
+                    }
+                });
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Stores the dark muted color worked out from the photo, with the cached details and the
+     * article. Only the page that worked it out shows it and it has it already, so nobody is
+     * told of the change.
+     */
+    public void saveMutedColor(long itemId, int color) {
+        synchronized (mDetails) {
+            final Details details = mDetails.get(itemId);
+            if (details != null) {
+                mDetails.put(itemId, details.withMutedColor(color));
+            }
+        }
+        ContentValues values = new ContentValues(1);
+        values.put(ItemsContract.Items.DARK_MUTED_COLOR, color);
+        new AsyncQueryHandler(mResolver) {
+        }.startUpdate(0, null, ItemsContract.Items.buildItemUriWithoutNotify(itemId), values,
+                null, null);
+    }
+
+    private long[] queryIds() {
+        final Cursor cursor = mResolver.query(ItemsContract.Items.buildDirUri(),
+                ArticleLoader.IdQuery.PROJECTION, null, null, ItemsContract.Items.DEFAULT_SORT);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            final long[] ids = new long[cursor.getCount()];
+            for (int position = 0; cursor.moveToPosition(position); position++) {
+                ids[position] = cursor.getLong(ArticleLoader.IdQuery._ID);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Details queryDetails(long itemId) {
+        final Cursor cursor = mResolver.query(ItemsContract.Items.buildItemUri(itemId),
+                ArticleLoader.DetailQuery.PROJECTION, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            final boolean hasMutedColor =
+                    !cursor.isNull(ArticleLoader.DetailQuery.DARK_MUTED_COLOR);
+            return new Details(cursor.getString(ArticleLoader.DetailQuery.TITLE),
+                    cursor.getString(ArticleLoader.DetailQuery.AUTHOR),
+                    cursor.getLong(ArticleLoader.DetailQuery.PUBLISHED_DATE),
+                    cursor.getString(ArticleLoader.DetailQuery.THUMB_URL),
+                    cursor.getFloat(ArticleLoader.DetailQuery.ASPECT_RATIO),
+                    cursor.getString(ArticleLoader.DetailQuery.PHOTO_URL),
+                    cursor.getString(ArticleLoader.DetailQuery.CONTENT_HASH),
+                    cursor.getString(ArticleLoader.DetailQuery.BODY), hasMutedColor,
+                    hasMutedColor ? cursor.getInt(ArticleLoader.DetailQuery.DARK_MUTED_COLOR) : 0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.text.TextUtils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Search as you type over {@link ItemsContract.Items#buildSearchUri}. A query only runs once
+ * the text has been left alone for {@link #DEBOUNCE_MILLIS}, and a query still running when
+ * the text changes again is cancelled, so results always belong to the latest text.
+ * <p>
+ * Must be used from the main thread. Queries run on a single background thread.
+ */
+public class ArticleSearch {
+    public static final long DEBOUNCE_MILLIS = 300;
+    public static final int RESULT_LIMIT = 50;
+
+    public interface Callbacks {
+        /**
+         * Results for {@code query}, null for no results. Ownership of the cursor passes to
+         * the callee.
+         */
+        void onSearchResults(String query, Cursor results);
+    }
+
+    private final ContentResolver mResolver;
+    private final Callbacks mCallbacks;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private String mQuery;
+    private Runnable mPendingQuery;
+    private CancellationSignal mRunningQuery;
+    private boolean mClosed;
+
+    public ArticleSearch(Context context, Callbacks callbacks) {
+        this(context.getApplicationContext().getContentResolver(), callbacks);
+    }
+
+    ArticleSearch(ContentResolver resolver, Callbacks callbacks) {
+        mResolver = resolver;
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * Searches for {@code query} once it stops changing. Empty text reports no results right
+     * away.
+     */
+    public void setQuery(final String query) {
+        if (mClosed || TextUtils.equals(query, mQuery)) {
+            return;
+        }
+        mQuery = query;
+        cancel();
+        if (TextUtils.isEmpty(query)) {
+            mCallbacks.onSearchResults(query, null);
+            return;
+        }
+
+        mPendingQuery = new Runnable() {
+            @Override
+            public void run() {
+                mPendingQuery = null;
+                execute(query);
+            }
+        };
+        mHandler.postDelayed(mPendingQuery, DEBOUNCE_MILLIS);
+    }
+
+    /** Drops the pending query and cancels the running one. */
+    private void cancel() {
+        if (mPendingQuery != null) {
+            mHandler.removeCallbacks(mPendingQuery);
+            mPendingQuery = null;
+        }
+        if (mRunningQuery != null) {
+            mRunningQuery.cancel();
+            mRunningQuery = null;
+        }
+    }
+
+    public void close() {
+        mClosed = true;
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    private void execute(final String query) {
+        final CancellationSignal signal = new CancellationSignal();
+        mRunningQuery = signal;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor;
+                try {
+                    cursor = mResolver.query(
+                            ItemsContract.Items.buildSearchUri(query, RESULT_LIMIT),
+                            ArticleLoader.SearchQuery.PROJECTION, null, null, null, signal);
+                } catch (OperationCanceledException e) {
+                    return;
+                }
+
+                final Cursor results = cursor;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onResults(signal, query, results);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onResults(CancellationSignal signal, String query, Cursor results) {
+        if (signal != mRunningQuery || mClosed) {
+            // superseded
+            if (results != null) {
+                results.close();
+            }
+            return;
+        }
+        mRunningQuery = null;
+        mCallbacks.onSearchResults(query, results);
+    }
+}
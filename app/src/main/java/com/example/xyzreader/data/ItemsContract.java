@@ -6,6 +6,20 @@ public class ItemsContract {
 	public static final String CONTENT_AUTHORITY = "com.example.xyzreader";
 	public static final Uri BASE_URI = Uri.parse("content://com.example.xyzreader");
 
+	/**
+	 * {@link android.content.ContentResolver#call} method: every write the calling thread
+	 * makes until {@link #METHOD_END_BATCH} is one transaction, which readers only see once
+	 * it is committed and observers hear of once. The transaction belongs to the calling
+	 * thread, so this only works from the provider's own process.
+	 */
+	public static final String METHOD_BEGIN_BATCH = "begin_batch";
+	/**
+	 * Ends what {@link #METHOD_BEGIN_BATCH} began: commits with {@link #ARG_COMMIT} as the
+	 * argument, rolls back otherwise. Must be called, whatever happened in between.
+	 */
+	public static final String METHOD_END_BATCH = "end_batch";
+	public static final String ARG_COMMIT = "commit";
+
 	interface ItemsColumns {
 		/** Type: INTEGER PRIMARY KEY AUTOINCREMENT */
 		String _ID = "_id";
@@ -25,24 +39,94 @@ public class ItemsContract {
 		String ASPECT_RATIO = "aspect_ratio";
 		/** Type: INTEGER NOT NULL DEFAULT 0 */
 		String PUBLISHED_DATE = "published_date";
+		/** Type: TEXT NOT NULL DEFAULT '', plain text start of the body for the list */
+		String EXCERPT = "excerpt";
+		/** Type: TEXT NOT NULL, digest of the synced columns used to skip unchanged rows */
+		String CONTENT_HASH = "content_hash";
+		/** Type: INTEGER, dark muted ARGB color of the photo, NULL until worked out */
+		String DARK_MUTED_COLOR = "dark_muted_color";
 	}
 
 	public static class Items implements ItemsColumns {
 		public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.com.example.xyzreader.items";
 		public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.com.example.xyzreader.items";
 
-        public static final String DEFAULT_SORT = PUBLISHED_DATE + " DESC";
+        /** Newest first; the id breaks ties so keyset pages have a total order. */
+        public static final String DEFAULT_SORT = PUBLISHED_DATE + " DESC, " + _ID + " DESC";
+
+		/** Maximum number of rows to return from the dir uri. */
+		public static final String QUERY_PARAMETER_LIMIT = "limit";
+		/** Rows to skip before the first returned one, only with a limit. */
+		public static final String QUERY_PARAMETER_OFFSET = "offset";
+		/** With {@link #QUERY_PARAMETER_BEFORE_ID}: only rows after this one in DEFAULT_SORT. */
+		public static final String QUERY_PARAMETER_BEFORE_DATE = "before_date";
+		public static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+		/**
+		 * "false" on an update that observers needn't hear about, because it only stores
+		 * something derived that the caller already has.
+		 */
+		public static final String QUERY_PARAMETER_NOTIFY = "notify";
+		/** Text to search for, on the search uri. */
+		public static final String QUERY_PARAMETER_QUERY = "q";
+
+		/**
+		 * Only on the search uri: the part of the best matching column around the hits, with
+		 * the matched words in {@code <b>} tags.
+		 */
+		public static final String SEARCH_SNIPPET = "snippet";
 
 		/** Matches: /items/ */
 		public static Uri buildDirUri() {
 			return BASE_URI.buildUpon().appendPath("items").build();
 		}
 
+		/** Matches: /items/?offset=[offset]&limit=[limit] */
+		public static Uri buildPageUri(int offset, int limit) {
+			return buildDirUri().buildUpon()
+					.appendQueryParameter(QUERY_PARAMETER_OFFSET, Integer.toString(offset))
+					.appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+					.build();
+		}
+
+		/**
+		 * Matches: /items/?before_date=[published_date]&before_id=[_id]&limit=[limit]
+		 * <p>
+		 * The page following the row with the given date and id in {@link #DEFAULT_SORT}. Unlike
+		 * an offset this is an index seek, so it costs the same at any depth.
+		 */
+		public static Uri buildPageAfterUri(long publishedDate, long _id, int limit) {
+			return buildDirUri().buildUpon()
+					.appendQueryParameter(QUERY_PARAMETER_BEFORE_DATE, Long.toString(publishedDate))
+					.appendQueryParameter(QUERY_PARAMETER_BEFORE_ID, Long.toString(_id))
+					.appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+					.build();
+		}
+
+		/**
+		 * Matches: /items/search?q=[query]&limit=[limit]
+		 * <p>
+		 * Articles matching every word of {@code query} in their title, author or body, the
+		 * last word also as a prefix. Best matches first, title hits weighing most.
+		 */
+		public static Uri buildSearchUri(String query, int limit) {
+			return buildDirUri().buildUpon().appendPath("search")
+					.appendQueryParameter(QUERY_PARAMETER_QUERY, query)
+					.appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+					.build();
+		}
+
 		/** Matches: /items/[_id]/ */
 		public static Uri buildItemUri(long _id) {
 			return BASE_URI.buildUpon().appendPath("items").appendPath(Long.toString(_id)).build();
 		}
 
+		/** Matches: /items/[_id]/?notify=false */
+		public static Uri buildItemUriWithoutNotify(long _id) {
+			return buildItemUri(_id).buildUpon()
+					.appendQueryParameter(QUERY_PARAMETER_NOTIFY, "false")
+					.build();
+		}
+
         /** Read item ID item detail URI. */
         public static long getItemId(Uri itemUri) {
             return Long.parseLong(itemUri.getPathSegments().get(1));
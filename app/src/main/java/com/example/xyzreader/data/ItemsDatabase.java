@@ -1,17 +1,77 @@
 package com.example.xyzreader.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import static com.example.xyzreader.data.ItemsProvider.Tables;
 
+/**
+ * Opens the articles database in write-ahead-log mode, so the list and detail loaders keep
+ * reading the last committed state while {@link UpdaterService} holds a write transaction.
+ * <p>
+ * The number of read connections in WAL mode is chosen by the framework from the device's
+ * {@code debug.sqlite.wal.poolsize}; it cannot be set by the app. The knobs below are the
+ * settings that can, with a catch: the framework gives the app no hook on the read
+ * connections it opens later, so the cache and mmap sizes only reach the primary connection,
+ * the one that writes. Reads that get a secondary connection run with SQLite's defaults.
+ */
 public class ItemsDatabase extends SQLiteOpenHelper {
-    private static final String DATABASE_NAME = "xyzreader.db";
-    private static final int DATABASE_VERSION = 1;
+    static final String DATABASE_NAME = "xyzreader.db";
+    static final int DATABASE_VERSION = 6;
+
+    private static final int VERSION_CONTENT_HASH = 2;
+    private static final int VERSION_INDEXES = 3;
+    private static final int VERSION_EXCERPT = 4;
+    private static final int VERSION_SEARCH = 5;
+    private static final int VERSION_PALETTE = 6;
+
+    /** Page size in bytes. Only takes effect when the database file is created. */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    /** Page cache of the primary connection in KiB. */
+    public static final int DEFAULT_CACHE_SIZE_KB = 2048;
+    /**
+     * Bytes of the file the primary connection memory maps for reads, 0 to disable. Ignored
+     * before API 21.
+     */
+    public static final long DEFAULT_MMAP_SIZE = 8 * 1024 * 1024;
+
+    private final int mPageSize;
+    private final int mCacheSizeKb;
+    private final long mMmapSize;
 
     public ItemsDatabase(Context context) {
+        this(context, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_SIZE_KB, DEFAULT_MMAP_SIZE);
+    }
+
+    public ItemsDatabase(Context context, int pageSize, int cacheSizeKb, long mmapSize) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mPageSize = pageSize;
+        mCacheSizeKb = cacheSizeKb;
+        mMmapSize = mmapSize;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Runs on the primary connection before onCreate/onUpgrade. The page size belongs to
+        // the file and is fixed once the first page is written, which switching to WAL does,
+        // so it has to come first. WAL is therefore enabled here rather than with
+        // setWriteAheadLoggingEnabled(), which switches while opening, before this runs.
+        db.execSQL("PRAGMA page_size = " + mPageSize);
+        db.enableWriteAheadLogging();
+        // Cache and mmap size only apply to this connection, see the class comment.
+        // negative means KiB rather than pages
+        db.execSQL("PRAGMA cache_size = -" + mCacheSizeKb);
+        // Returns the new value as a row, which execSQL refuses. Older SQLite versions without
+        // mmap support simply return nothing.
+        Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + mMmapSize, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -25,13 +85,113 @@ public class ItemsDatabase extends SQLiteOpenHelper {
                 + ItemsContract.ItemsColumns.THUMB_URL + " TEXT NOT NULL,"
                 + ItemsContract.ItemsColumns.PHOTO_URL + " TEXT NOT NULL,"
                 + ItemsContract.ItemsColumns.ASPECT_RATIO + " REAL NOT NULL DEFAULT 1.5,"
-                + ItemsContract.ItemsColumns.PUBLISHED_DATE + " INTEGER NOT NULL DEFAULT 0"
+                + ItemsContract.ItemsColumns.PUBLISHED_DATE + " INTEGER NOT NULL DEFAULT 0,"
+                + ItemsContract.ItemsColumns.CONTENT_HASH + " TEXT NOT NULL,"
+                + ItemsContract.ItemsColumns.EXCERPT + " TEXT NOT NULL DEFAULT '',"
+                + ItemsContract.ItemsColumns.DARK_MUTED_COLOR + " INTEGER"
                 + ")" );
+
+        // Sync matches rows on the server id, so it has to be unique and indexed.
+        db.execSQL("CREATE UNIQUE INDEX " + Tables.ITEMS + "_" + ItemsContract.ItemsColumns.SERVER_ID
+                + " ON " + Tables.ITEMS + " (" + ItemsContract.ItemsColumns.SERVER_ID + ")");
+
+        createSyncIndex(db);
+        createListIndex(db);
+        createSearchTable(db);
     }
 
+    /**
+     * Upgrades step by step from {@code oldVersion}, each step brings the schema to the
+     * version it is named after.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + Tables.ITEMS);
-        onCreate(db);
+        if (oldVersion < VERSION_CONTENT_HASH) {
+            // Rows without a hash can't be matched against the feed, the next sync
+            // downloads everything again anyway.
+            db.execSQL("DROP TABLE IF EXISTS " + Tables.ITEMS);
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < VERSION_INDEXES) {
+            createSyncIndex(db);
+        }
+        if (oldVersion < VERSION_EXCERPT) {
+            db.execSQL("ALTER TABLE " + Tables.ITEMS + " ADD COLUMN "
+                    + ItemsContract.ItemsColumns.EXCERPT + " TEXT NOT NULL DEFAULT ''");
+            // Excerpts are derived during sync, forget the hashes so the next one rewrites
+            // every row.
+            db.execSQL("UPDATE " + Tables.ITEMS + " SET "
+                    + ItemsContract.ItemsColumns.CONTENT_HASH + "=''");
+            db.execSQL("DROP INDEX IF EXISTS " + Tables.ITEMS + "_list");
+            createListIndex(db);
+        }
+        if (oldVersion < VERSION_SEARCH) {
+            createSearchTable(db);
+            // indexes the rows that are already there
+            db.execSQL("INSERT INTO " + Tables.SEARCH + "(" + Tables.SEARCH + ")"
+                    + " VALUES('rebuild')");
+        }
+        if (oldVersion < VERSION_PALETTE) {
+            db.execSQL("ALTER TABLE " + Tables.ITEMS + " ADD COLUMN "
+                    + ItemsContract.ItemsColumns.DARK_MUTED_COLOR + " INTEGER");
+        }
+    }
+
+    /**
+     * Serves ORDER BY published_date and covers {@link ArticleLoader.ListQuery}, so the list is
+     * read from the index alone without visiting the table rows and their bodies.
+     */
+    private static void createListIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + Tables.ITEMS + "_list ON " + Tables.ITEMS + " ("
+                + ItemsContract.ItemsColumns.PUBLISHED_DATE + ","
+                + ItemsContract.ItemsColumns._ID + ","
+                + ItemsContract.ItemsColumns.TITLE + ","
+                + ItemsContract.ItemsColumns.AUTHOR + ","
+                + ItemsContract.ItemsColumns.THUMB_URL + ","
+                + ItemsContract.ItemsColumns.ASPECT_RATIO + ","
+                + ItemsContract.ItemsColumns.EXCERPT + ")");
+    }
+
+    private static void createSyncIndex(SQLiteDatabase db) {
+        // The content hash is the last column, reading it from the table walks every body's
+        // overflow pages. UpdaterService reads all of them before each sync.
+        db.execSQL("CREATE INDEX " + Tables.ITEMS + "_sync ON " + Tables.ITEMS + " ("
+                + ItemsContract.ItemsColumns.SERVER_ID + ","
+                + ItemsContract.ItemsColumns.CONTENT_HASH + ")");
+    }
+
+    /**
+     * Full-text index over title, author and body. It stores no copy of the text, the columns
+     * are read back from the items table by rowid (an external content table), and the
+     * triggers keep it in step with every write to that table.
+     */
+    private static void createSearchTable(SQLiteDatabase db) {
+        final String indexed = ItemsContract.ItemsColumns.TITLE + ","
+                + ItemsContract.ItemsColumns.AUTHOR + ","
+                + ItemsContract.ItemsColumns.BODY;
+        final String newValues = "new." + ItemsContract.ItemsColumns.TITLE + ","
+                + "new." + ItemsContract.ItemsColumns.AUTHOR + ","
+                + "new." + ItemsContract.ItemsColumns.BODY;
+
+        db.execSQL("CREATE VIRTUAL TABLE " + Tables.SEARCH + " USING fts4(content=\""
+                + Tables.ITEMS + "\"," + indexed + ")");
+
+        // The old tokens are looked up in the content table, so they have to be removed
+        // before the row changes. Updates of other columns leave the index alone.
+        db.execSQL("CREATE TRIGGER " + Tables.SEARCH + "_bu BEFORE UPDATE OF " + indexed
+                + " ON " + Tables.ITEMS + " BEGIN DELETE FROM " + Tables.SEARCH
+                + " WHERE docid=old." + ItemsContract.ItemsColumns._ID + "; END");
+        db.execSQL("CREATE TRIGGER " + Tables.SEARCH + "_bd BEFORE DELETE ON " + Tables.ITEMS
+                + " BEGIN DELETE FROM " + Tables.SEARCH
+                + " WHERE docid=old." + ItemsContract.ItemsColumns._ID + "; END");
+        db.execSQL("CREATE TRIGGER " + Tables.SEARCH + "_au AFTER UPDATE OF " + indexed
+                + " ON " + Tables.ITEMS + " BEGIN INSERT INTO " + Tables.SEARCH
+                + "(docid," + indexed + ") VALUES(new." + ItemsContract.ItemsColumns._ID + ","
+                + newValues + "); END");
+        db.execSQL("CREATE TRIGGER " + Tables.SEARCH + "_ai AFTER INSERT ON " + Tables.ITEMS
+                + " BEGIN INSERT INTO " + Tables.SEARCH
+                + "(docid," + indexed + ") VALUES(new." + ItemsContract.ItemsColumns._ID + ","
+                + newValues + "); END");
     }
 }
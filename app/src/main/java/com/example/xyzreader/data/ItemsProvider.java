@@ -10,20 +10,39 @@ import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ItemsProvider extends ContentProvider {
 	private SQLiteOpenHelper mOpenHelper;
 
+	/**
+	 * Uris changed by the batch being applied on the current thread, null outside of one.
+	 * Batches nest, the notifications go out when the outermost one is committed.
+	 */
+	private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+
 	interface Tables {
 		String ITEMS = "items";
+		/** Full-text index of {@link #ITEMS}, see {@link ItemsSearch}. */
+		String SEARCH = "items_search";
 	}
 
 	private static final int ITEMS = 0;
 	private static final int ITEMS__ID = 1;
+	private static final int ITEMS_SEARCH = 2;
+
+	/** Results of a search uri without a limit. */
+	private static final int DEFAULT_SEARCH_LIMIT = 50;
 
 	private static final UriMatcher sUriMatcher = buildUriMatcher();
 
@@ -32,6 +51,7 @@ public class ItemsProvider extends ContentProvider {
 		final String authority = ItemsContract.CONTENT_AUTHORITY;
 		matcher.addURI(authority, "items", ITEMS);
 		matcher.addURI(authority, "items/#", ITEMS__ID);
+		matcher.addURI(authority, "items/search", ITEMS_SEARCH);
 		return matcher;
 	}
 
@@ -41,11 +61,18 @@ public class ItemsProvider extends ContentProvider {
 		return true;
 	}
 
+	/** Closes the database, for tests that throw the provider away. */
+	@Override
+	public void shutdown() {
+		mOpenHelper.close();
+	}
+
 	@Override
 	public String getType(Uri uri) {
 		final int match = sUriMatcher.match(uri);
 		switch (match) {
 			case ITEMS:
+			case ITEMS_SEARCH:
 				return ItemsContract.Items.CONTENT_TYPE;
 			case ITEMS__ID:
 				return ItemsContract.Items.CONTENT_ITEM_TYPE;
@@ -56,9 +83,24 @@ public class ItemsProvider extends ContentProvider {
 
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		return query(uri, projection, selection, selectionArgs, sortOrder, null);
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder, CancellationSignal cancellationSignal) {
 		final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
-		final SelectionBuilder builder = buildSelection(uri);
-		Cursor cursor = builder.where(selection, selectionArgs).query(db, projection, sortOrder);
+		Cursor cursor;
+		if (sUriMatcher.match(uri) == ITEMS_SEARCH) {
+			// ranked by relevance, selection and sort order don't apply
+			cursor = ItemsSearch.search(db,
+					uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_QUERY), projection,
+					buildSearchLimit(uri), cancellationSignal);
+		} else {
+			final SelectionBuilder builder = buildSelection(uri);
+			cursor = builder.where(selection, selectionArgs).query(db, projection, null, null,
+					sortOrder, buildLimit(uri), cancellationSignal);
+		}
         if (cursor != null) {
             cursor.setNotificationUri(getContext().getContentResolver(), uri);
         }
@@ -72,7 +114,8 @@ public class ItemsProvider extends ContentProvider {
 		switch (match) {
 			case ITEMS: {
 				final long _id = db.insertOrThrow(Tables.ITEMS, null, values);
-                getContext().getContentResolver().notifyChange(uri, null);
+				// a new row changes the row set, so the dir uri is the precise target
+				notifyChange(ItemsContract.Items.buildDirUri());
 				return ItemsContract.Items.buildItemUri(_id);
 			}
 			default: {
@@ -85,29 +128,225 @@ public class ItemsProvider extends ContentProvider {
 	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 		final SelectionBuilder builder = buildSelection(uri);
-        getContext().getContentResolver().notifyChange(uri, null);
-		return builder.where(selection, selectionArgs).update(db, values);
+		final int count = builder.where(selection, selectionArgs).update(db, values);
+		if (count > 0 && !"false".equals(
+				uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_NOTIFY))) {
+			// an item uri only reaches observers of that item (and of the dir, which
+			// observes its descendants); a selection on the dir may have touched any row
+			notifyChange(uri);
+		}
+		return count;
 	}
 
 	@Override
 	public int delete(Uri uri, String selection, String[] selectionArgs) {
 		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 		final SelectionBuilder builder = buildSelection(uri);
-        getContext().getContentResolver().notifyChange(uri, null);
-		return builder.where(selection, selectionArgs).delete(db);
+		final int count = builder.where(selection, selectionArgs).delete(db);
+		if (count > 0) {
+			notifyChange(ItemsContract.Items.buildDirUri());
+		}
+		return count;
+	}
+
+	/**
+	 * Notify observers of {@code uri}, or, while a batch is being applied on this thread, hold
+	 * the notification back until it has been committed.
+	 */
+	private void notifyChange(Uri uri) {
+		final Set<Uri> pending = mPendingNotifications.get();
+		if (pending != null) {
+			pending.add(uri);
+		} else {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	private void dispatchNotifications(Set<Uri> uris) {
+		final Uri dirUri = ItemsContract.Items.buildDirUri();
+		if (uris.contains(dirUri)) {
+			// observers of single items are registered for the dir's descendants' changes
+			// through the dir, one notification reaches all of them
+			getContext().getContentResolver().notifyChange(dirUri, null);
+			return;
+		}
+		for (Uri uri : uris) {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	/**
+	 * Upserts the given rows in one transaction, matching existing rows on
+	 * {@link ItemsContract.Items#SERVER_ID} so their {@code _id} stays the same. A single
+	 * pair of compiled statements is reused for all rows and the values are bound by column
+	 * index, and observers are notified once at the end.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		final int match = sUriMatcher.match(uri);
+		if (match != ITEMS) {
+			throw new UnsupportedOperationException("Unknown uri: " + uri);
+		}
+
+		final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+		final SQLiteStatement update = db.compileStatement(UpsertQuery.UPDATE_SQL);
+		final SQLiteStatement insert = db.compileStatement(UpsertQuery.INSERT_SQL);
+		// non-exclusive, so WAL readers are not held up by the write
+		db.beginTransactionNonExclusive();
+		try {
+			for (ContentValues row : values) {
+				// UPDATE binds the server id last, as the WHERE argument
+				bindColumns(update, row, UpsertQuery.UPDATE_COLUMNS);
+				if (update.executeUpdateDelete() == 0) {
+					bindColumns(insert, row, UpsertQuery.INSERT_COLUMNS);
+					insert.executeInsert();
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			update.close();
+			insert.close();
+		}
+
+		if (values.length > 0) {
+			notifyChange(uri);
+		}
+		return values.length;
+	}
+
+	private static void bindColumns(SQLiteStatement statement, ContentValues row, String[] columns) {
+		statement.clearBindings();
+		for (int i = 0; i < columns.length; i++) {
+			final Object value = row.get(columns[i]);
+			final int index = i + 1;
+			if (value == null) {
+				statement.bindNull(index);
+			} else if (value instanceof Long || value instanceof Integer) {
+				statement.bindLong(index, ((Number) value).longValue());
+			} else if (value instanceof Double || value instanceof Float) {
+				statement.bindDouble(index, ((Number) value).doubleValue());
+			} else {
+				statement.bindString(index, value.toString());
+			}
+		}
+	}
+
+	/**
+	 * Statements of {@link #bulkInsert}. The column arrays give the order in which values are
+	 * bound to the {@code ?} placeholders.
+	 */
+	interface UpsertQuery {
+		String[] INSERT_COLUMNS = {
+				ItemsContract.Items.SERVER_ID,
+				ItemsContract.Items.TITLE,
+				ItemsContract.Items.AUTHOR,
+				ItemsContract.Items.BODY,
+				ItemsContract.Items.THUMB_URL,
+				ItemsContract.Items.PHOTO_URL,
+				ItemsContract.Items.ASPECT_RATIO,
+				ItemsContract.Items.PUBLISHED_DATE,
+				ItemsContract.Items.EXCERPT,
+				ItemsContract.Items.CONTENT_HASH,
+		};
+
+		String[] UPDATE_COLUMNS = {
+				ItemsContract.Items.TITLE,
+				ItemsContract.Items.AUTHOR,
+				ItemsContract.Items.BODY,
+				ItemsContract.Items.THUMB_URL,
+				ItemsContract.Items.PHOTO_URL,
+				ItemsContract.Items.ASPECT_RATIO,
+				ItemsContract.Items.PUBLISHED_DATE,
+				ItemsContract.Items.EXCERPT,
+				ItemsContract.Items.CONTENT_HASH,
+				ItemsContract.Items.SERVER_ID,
+		};
+
+		String INSERT_SQL = "INSERT INTO " + Tables.ITEMS + " ("
+				+ TextUtils.join(",", INSERT_COLUMNS) + ") VALUES ("
+				+ placeholders(INSERT_COLUMNS.length) + ")";
+
+		/**
+		 * The stored photo color is kept while the photo stays the same, and cleared to be
+		 * worked out again when it changes. SET expressions see the old row, and the photo
+		 * url is bound once, by number.
+		 */
+		String UPDATE_SQL = "UPDATE " + Tables.ITEMS + " SET "
+				+ TextUtils.join("=?,", Arrays.copyOf(UPDATE_COLUMNS, UPDATE_COLUMNS.length - 1))
+				+ "=?," + ItemsContract.Items.DARK_MUTED_COLOR + "=CASE WHEN "
+				+ ItemsContract.Items.PHOTO_URL + "=?"
+				+ (Arrays.asList(UPDATE_COLUMNS).indexOf(ItemsContract.Items.PHOTO_URL) + 1)
+				+ " THEN " + ItemsContract.Items.DARK_MUTED_COLOR + " END"
+				+ " WHERE " + ItemsContract.Items.SERVER_ID + "=?";
+	}
+
+	private static String placeholders(int count) {
+		final StringBuilder sb = new StringBuilder(count * 2);
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append('?');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * LIMIT clause for the paging parameters of {@code uri}, or null for all rows. Parsed as
+	 * numbers, so nothing but digits ends up in the SQL.
+	 */
+	private static String buildLimit(Uri uri) {
+		final String limit = uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_LIMIT);
+		if (limit == null) {
+			return null;
+		}
+		final String offset = uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_OFFSET);
+		try {
+			final int count = Integer.parseInt(limit);
+			return offset != null ? Integer.parseInt(offset) + "," + count : Integer.toString(count);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid paging parameters: " + uri, e);
+		}
 	}
 
-	private SelectionBuilder buildSelection(Uri uri) {
+	private static int buildSearchLimit(Uri uri) {
+		final String limit = uri.getQueryParameter(ItemsContract.Items.QUERY_PARAMETER_LIMIT);
+		if (limit == null) {
+			return DEFAULT_SEARCH_LIMIT;
+		}
+		try {
+			return Integer.parseInt(limit);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid limit: " + uri, e);
+		}
+	}
+
+	static SelectionBuilder buildSelection(Uri uri) {
 		final SelectionBuilder builder = new SelectionBuilder();
 		final int match = sUriMatcher.match(uri);
 		return buildSelection(uri, match, builder);
 	}
 
-	private SelectionBuilder buildSelection(Uri uri, int match, SelectionBuilder builder) {
+	private static SelectionBuilder buildSelection(Uri uri, int match,
+			SelectionBuilder builder) {
 		final List<String> paths = uri.getPathSegments();
 		switch (match) {
 			case ITEMS: {
-				return builder.table(Tables.ITEMS);
+				builder.table(Tables.ITEMS);
+				final String beforeDate = uri.getQueryParameter(
+						ItemsContract.Items.QUERY_PARAMETER_BEFORE_DATE);
+				final String beforeId = uri.getQueryParameter(
+						ItemsContract.Items.QUERY_PARAMETER_BEFORE_ID);
+				if (beforeDate != null && beforeId != null) {
+					// (published_date, _id) < (date, id), written so the date range alone
+					// can seek in the list index
+					builder.where(ItemsContract.Items.PUBLISHED_DATE + "<=? AND ("
+									+ ItemsContract.Items.PUBLISHED_DATE + "<? OR "
+									+ ItemsContract.Items._ID + "<?)",
+							beforeDate, beforeDate, beforeId);
+				}
+				return builder;
 			}
 			case ITEMS__ID: {
 				final String _id = paths.get(1);
@@ -122,22 +361,70 @@ public class ItemsProvider extends ContentProvider {
     /**
      * Apply the given set of {@link ContentProviderOperation}, executing inside
      * a {@link SQLiteDatabase} transaction. All changes will be rolled back if
-     * any single one fails.
+     * any single one fails. Change notifications of the operations are collected
+     * and sent once the transaction has been committed, so observers never re-query
+     * halfway through a batch.
      */
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        db.beginTransaction();
+        boolean successful = false;
+        beginBatch();
         try {
             final int numOperations = operations.size();
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
             for (int i = 0; i < numOperations; i++) {
                 results[i] = operations.get(i).apply(this, results, i);
             }
-            db.setTransactionSuccessful();
+            successful = true;
             return results;
         } finally {
-            db.endTransaction();
+            endBatch(successful);
+        }
+    }
+
+    /** See {@link ItemsContract#METHOD_BEGIN_BATCH}. */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ItemsContract.METHOD_BEGIN_BATCH.equals(method)) {
+            beginBatch();
+            return null;
+        }
+        if (ItemsContract.METHOD_END_BATCH.equals(method)) {
+            endBatch(ItemsContract.ARG_COMMIT.equals(arg));
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Starts a transaction on the current thread, nested in the one already open there if
+     * any, and holds change notifications back until the outermost one ends.
+     */
+    private void beginBatch() {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (mPendingNotifications.get() == null) {
+            mPendingNotifications.set(new HashSet<Uri>());
+        }
+        // non-exclusive, so WAL readers are not held up by the write
+        db.beginTransactionNonExclusive();
+    }
+
+    /**
+     * Ends the innermost transaction of {@link #beginBatch}. An unsuccessful nested one rolls
+     * the outermost one back as well.
+     */
+    private void endBatch(boolean successful) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (successful) {
+            db.setTransactionSuccessful();
+        }
+        db.endTransaction();
+        if (!db.inTransaction()) {
+            final Set<Uri> pending = mPendingNotifications.get();
+            mPendingNotifications.remove();
+            if (successful && pending != null) {
+                dispatchNotifications(pending);
+            }
         }
     }
 }
@@ -0,0 +1,250 @@
+package com.example.xyzreader.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import static com.example.xyzreader.data.ItemsProvider.Tables;
+
+/**
+ * Ranked full-text search behind {@link ItemsContract.Items#buildSearchUri}, over the index
+ * created by {@link ItemsDatabase}.
+ * <p>
+ * FTS4 has no ranking of its own, so a search takes two queries. The first reads only the
+ * match statistics of every hit and keeps the best {@code limit} of them, the second reads
+ * columns and snippets for just those rows.
+ */
+class ItemsSearch {
+    /** Weight of a title, author and body hit, in the order of the index columns. */
+    private static final double[] COLUMN_WEIGHTS = {10.0, 3.0, 1.0};
+    /** Approximate number of words in a snippet. */
+    private static final int SNIPPET_TOKENS = 12;
+    /** A shorter last word is only matched whole, a one letter prefix matches nearly all. */
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    static final String[] DEFAULT_PROJECTION = ArticleLoader.SearchQuery.PROJECTION;
+
+    /**
+     * docid and the matchinfo of every hit: phrase count, column count, row count, then per
+     * phrase and column the hits in this row, in all rows and the rows with hits.
+     */
+    static final String MATCH_SQL = "SELECT docid, matchinfo(" + Tables.SEARCH + ", 'pcnx')"
+            + " FROM " + Tables.SEARCH + " WHERE " + Tables.SEARCH + " MATCH ?";
+
+    private ItemsSearch() {
+    }
+
+    /**
+     * Turns what the user typed into an FTS query: every word has to appear, the last one
+     * may also be the start of a word. Operators and quotes are not passed through.
+     *
+     * @return the MATCH argument, or null if the query has no words
+     */
+    static String matchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+        final String[] words = query.trim().split("\\s+");
+        final StringBuilder sb = new StringBuilder(query.length() + words.length * 3);
+        for (int i = 0; i < words.length; i++) {
+            final String word = words[i].replace("\"", "");
+            if (!hasLetterOrDigit(word)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append('"').append(word);
+            if (i == words.length - 1 && word.length() >= MIN_PREFIX_LENGTH) {
+                sb.append('*');
+            }
+            sb.append('"');
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static boolean hasLetterOrDigit(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isLetterOrDigit(word.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Statement reading {@code projection} for the rows in {@code ids}, with the docid as an
+     * extra last column. The MATCH is repeated because snippets need it.
+     */
+    static String buildResultSql(String[] projection, long[] ids, int count) {
+        final StringBuilder sb = new StringBuilder("SELECT ");
+        for (String column : projection) {
+            if (ItemsContract.Items.SEARCH_SNIPPET.equals(column)) {
+                sb.append("snippet(").append(Tables.SEARCH)
+                        .append(", '<b>', '</b>', '…', -1, ").append(SNIPPET_TOKENS)
+                        .append(")");
+            } else {
+                sb.append(Tables.ITEMS).append('.').append(column);
+            }
+            sb.append(" AS ").append(column).append(',');
+        }
+        sb.append(Tables.SEARCH).append(".docid");
+        // CROSS JOIN keeps the index as the outer loop, rows are then fetched by rowid
+        sb.append(" FROM ").append(Tables.SEARCH).append(" CROSS JOIN ").append(Tables.ITEMS)
+                .append(" ON ").append(Tables.ITEMS).append('.').append(ItemsContract.Items._ID)
+                .append('=').append(Tables.SEARCH).append(".docid")
+                .append(" WHERE ").append(Tables.SEARCH).append(" MATCH ? AND ")
+                .append(Tables.SEARCH).append(".docid IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(ids[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Runs the search, best match first.
+     *
+     * @param projection columns of {@link ItemsContract.Items} and
+     *                   {@link ItemsContract.Items#SEARCH_SNIPPET}, null for
+     *                   {@link #DEFAULT_PROJECTION}
+     * @throws android.os.OperationCanceledException if {@code cancellationSignal} fires
+     */
+    static Cursor search(SQLiteDatabase db, String query, String[] projection, int limit,
+            CancellationSignal cancellationSignal) {
+        if (projection == null) {
+            projection = DEFAULT_PROJECTION;
+        }
+        final String match = matchExpression(query);
+        if (match == null || limit <= 0) {
+            return new MatrixCursor(projection, 0);
+        }
+
+        final PriorityQueue<Hit> best = new PriorityQueue<Hit>(limit, Hit.WORST_FIRST);
+        Cursor cursor = db.rawQuery(MATCH_SQL, new String[]{match}, cancellationSignal);
+        try {
+            while (cursor.moveToNext()) {
+                final Hit hit = new Hit(cursor.getLong(0), score(cursor.getBlob(1)));
+                if (best.size() < limit) {
+                    best.add(hit);
+                } else if (Hit.WORST_FIRST.compare(hit, best.peek()) > 0) {
+                    best.poll();
+                    best.add(hit);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // best first
+        final int count = best.size();
+        final long[] ids = new long[count];
+        final HashMap<Long, Integer> ranks = new HashMap<Long, Integer>(count * 2);
+        for (int i = count - 1; i >= 0; i--) {
+            ids[i] = best.poll().id;
+            ranks.put(ids[i], i);
+        }
+
+        final Object[][] rows = new Object[count][];
+        if (count > 0) {
+            if (cancellationSignal != null) {
+                cancellationSignal.throwIfCanceled();
+            }
+            cursor = db.rawQuery(buildResultSql(projection, ids, count), new String[]{match},
+                    cancellationSignal);
+            try {
+                final int docid = projection.length;
+                while (cursor.moveToNext()) {
+                    final Object[] row = new Object[projection.length];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = getValue(cursor, i);
+                    }
+                    rows[ranks.get(cursor.getLong(docid))] = row;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        final MatrixCursor result = new MatrixCursor(projection, count);
+        for (Object[] row : rows) {
+            // a row deleted between the two queries leaves a gap
+            if (row != null) {
+                result.addRow(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sum over the query words and columns of the column weight times a saturating count of
+     * the word's hits in this row, scaled by how rare the word is across all rows.
+     */
+    private static double score(byte[] matchinfo) {
+        final IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        final int phrases = info.get(0);
+        final int columns = info.get(1);
+        final int rows = info.get(2);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < COLUMN_WEIGHTS.length; column++) {
+                final int offset = 3 + 3 * (phrase * columns + column);
+                final int hitsInRow = info.get(offset);
+                final int rowsWithHits = info.get(offset + 2);
+                if (hitsInRow > 0) {
+                    score += COLUMN_WEIGHTS[column] * hitsInRow / (hitsInRow + 1.0)
+                            * Math.log(1.0 + (double) rows / rowsWithHits);
+                }
+            }
+        }
+        return score;
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    private static class Hit {
+        /** Lower score first, on a tie the older (lower) id. */
+        static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+            @Override
+            public int compare(Hit a, Hit b) {
+                final int byScore = Double.compare(a.score, b.score);
+                if (byScore != 0) {
+                    return byScore;
+                }
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        };
+
+        final long id;
+        final double score;
+
+        Hit(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
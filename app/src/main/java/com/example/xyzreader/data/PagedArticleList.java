@@ -0,0 +1,467 @@
+package com.example.xyzreader.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The article list in {@link ArticleLoader.ListQuery} form, loaded a page at a time as rows are
+ * asked for, with at most {@link #MAX_RESIDENT_PAGES} pages kept in memory. Opening the list
+ * costs one page and a count. The count walks an index, so unlike the pages it grows with the
+ * table, though only by pages of the index rather than rows. Pages are copied out of their
+ * cursors on the worker thread into {@link ArticlePage}s, so binding a row never touches a
+ * cursor.
+ * <p>
+ * Pages are fetched with keyset uris, see {@link ItemsContract.Items#buildPageAfterUri}, which
+ * cost the same at any depth: a page following a loaded page from that page's last row, and
+ * the resident pages re-read after a change from the first row each run of them held, see
+ * {@link #reload()}. Only a page with no loaded predecessor after a jump falls back to an
+ * offset, as does re-reading after the positions were found to be off.
+ * <p>
+ * After a change the resident pages are compared with what they held before, off the main
+ * thread, and only the rows that differ are reported, see {@link Callbacks#onRowsChanged}.
+ * <p>
+ * Must be used from the main thread. Queries run on a single background thread.
+ */
+public class PagedArticleList {
+    public static final int PAGE_SIZE = 50;
+    public static final int MAX_RESIDENT_PAGES = 6;
+    /** Load the next page once a row this close to the end of its page is asked for. */
+    private static final int PREFETCH_DISTANCE = 10;
+    /** Changes arriving this close together are read in one reload. */
+    private static final long RELOAD_DELAY_MS = 100;
+    /** No row; row ids start at 1. */
+    private static final long NO_ID = 0;
+
+    public interface Callbacks {
+        /** Count and rows may all have changed. */
+        void onDataSetChanged();
+
+        /**
+         * The table changed; {@code changes} turns the rows as they were into the rows as they
+         * are now. Rows of pages that weren't loaded before or after count as unchanged.
+         */
+        void onRowsChanged(DiffUtil.DiffResult changes);
+
+        /** Rows {@code start} to {@code start + count} are now available. */
+        void onRangeLoaded(int start, int count);
+    }
+
+    private final ContentResolver mResolver;
+    private final Callbacks mCallbacks;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final SparseArray<ArticlePage> mPages = new SparseArray<ArticlePage>();
+    /** Page indexes, least recently used first. */
+    private final LinkedList<Integer> mPageOrder = new LinkedList<Integer>();
+    /** Pages with a query in flight. */
+    private final List<Integer> mLoading = new ArrayList<Integer>();
+    private int mCount;
+    /** Titles and authors of the pages, only used on the worker thread. */
+    private final ArticlePage.Interner mStrings =
+            new ArticlePage.Interner(4 * PAGE_SIZE * MAX_RESIDENT_PAGES);
+    /**
+     * Bumped on every reload; results of older queries are dropped, and queries the worker
+     * hasn't started yet are skipped. Written on the main thread only.
+     */
+    private volatile int mGeneration;
+    private boolean mClosed;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            reload();
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.removeCallbacks(mReload);
+            mHandler.postDelayed(mReload, RELOAD_DELAY_MS);
+        }
+    };
+
+    public PagedArticleList(Context context, Callbacks callbacks) {
+        this(context.getApplicationContext().getContentResolver(), callbacks);
+    }
+
+    PagedArticleList(ContentResolver resolver, Callbacks callbacks) {
+        mResolver = resolver;
+        mCallbacks = callbacks;
+    }
+
+    /** Loads the count and the first page, and starts following changes. */
+    public void start() {
+        mResolver.registerContentObserver(ItemsContract.Items.buildDirUri(), true, mObserver);
+        reload();
+    }
+
+    public void close() {
+        mClosed = true;
+        mResolver.unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mReload);
+        mExecutor.shutdownNow();
+        mPages.clear();
+        mPageOrder.clear();
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the page holding the row, or null if it isn't loaded yet. In that case the page
+     * is requested and {@link Callbacks#onRangeLoaded} follows. Counts as a use of the page for
+     * choosing which ones to evict, and may load the next page ahead; only call it for rows
+     * that are shown, see {@link #peekPage}.
+     */
+    public ArticlePage getPage(int position) {
+        final int page = position / PAGE_SIZE;
+        final int offsetInPage = position % PAGE_SIZE;
+        if (offsetInPage >= PAGE_SIZE - PREFETCH_DISTANCE
+                && (page + 1) * PAGE_SIZE < mCount) {
+            requestPage(page + 1);
+        }
+
+        final ArticlePage loaded = mPages.get(page);
+        if (loaded == null) {
+            requestPage(page);
+            return null;
+        }
+        touch(page);
+        return loaded.contains(position) ? loaded : null;
+    }
+
+    /**
+     * Returns the page holding the row, or null if it isn't loaded. Loads nothing and leaves
+     * the eviction order alone.
+     */
+    public ArticlePage peekPage(int position) {
+        final ArticlePage loaded = mPages.get(position / PAGE_SIZE);
+        return loaded != null && loaded.contains(position) ? loaded : null;
+    }
+
+    private void touch(int page) {
+        mPageOrder.remove(Integer.valueOf(page));
+        mPageOrder.addLast(page);
+    }
+
+    private void requestPage(final int page) {
+        if (mClosed || mPages.get(page) != null || mLoading.contains(page)) {
+            return;
+        }
+        mLoading.add(page);
+
+        final Uri uri = pageUri(page);
+        // The page has to end right before the next one, if that is loaded. Positions above a
+        // run of pages re-read by keyset may be off, see reload().
+        final ArticlePage next = mPages.get(page + 1);
+        final long nextId = next != null && next.getCount() > 0
+                ? next.getId(next.getFirstPosition()) : NO_ID;
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    // the rows are bound again after the reload, which asks for it again
+                    return;
+                }
+                final ArticlePage loaded = queryPage(uri, page);
+                final boolean aligned = nextId == NO_ID || loaded == null
+                        || queryIdAfter(loaded) == nextId;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(generation, page, loaded, aligned);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Keyset uri if the previous page is loaded, offset uri otherwise. */
+    private Uri pageUri(int page) {
+        final ArticlePage previous = page > 0 ? mPages.get(page - 1) : null;
+        if (previous != null && previous.getCount() > 0) {
+            final int last = previous.getFirstPosition() + previous.getCount() - 1;
+            return ItemsContract.Items.buildPageAfterUri(
+                    previous.getPublishedDate(last), previous.getId(last), PAGE_SIZE);
+        }
+        return ItemsContract.Items.buildPageUri(page * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    private void onPageLoaded(int generation, int page, ArticlePage loaded, boolean aligned) {
+        if (generation != mGeneration || mClosed) {
+            return;
+        }
+        mLoading.remove(Integer.valueOf(page));
+        if (loaded == null) {
+            return;
+        }
+        if (!aligned || loaded.getCount() != Math.min(PAGE_SIZE, mCount - page * PAGE_SIZE)) {
+            // Rows were added or removed above pages re-read by keyset, or the table changed
+            // since the count and a reload is on its way anyway.
+            reload(true);
+            return;
+        }
+        putPage(page, loaded);
+        mCallbacks.onRangeLoaded(loaded.getFirstPosition(), loaded.getCount());
+    }
+
+    private void putPage(int page, ArticlePage loaded) {
+        mPages.put(page, loaded);
+        touch(page);
+        while (mPageOrder.size() > MAX_RESIDENT_PAGES) {
+            mPages.remove(mPageOrder.removeFirst());
+        }
+    }
+
+    /**
+     * Re-reads the count and every resident page in one go, so the list never shows a count
+     * from one version of the table with rows from another.
+     * <p>
+     * Each run of consecutive resident pages is re-read by keyset from the first row it held,
+     * and keeps its positions. That is exact for a run from the top. Rows added or removed
+     * above any other run would move it, which can't be known without counting the rows up to
+     * it, as costly as an offset. The run stays put instead; a page found not to line up
+     * with the table around it later, or now, has everything read again at exact positions.
+     */
+    void reload() {
+        reload(false);
+    }
+
+    /** @param exact read the first page of each run at its offset rather than by keyset */
+    private void reload(final boolean exact) {
+        if (mClosed) {
+            return;
+        }
+        final int generation = ++mGeneration;
+        mLoading.clear();
+
+        final int[] pages = new int[Math.max(1, mPageOrder.size())];
+        for (int i = 0; i < mPageOrder.size(); i++) {
+            pages[i] = mPageOrder.get(i);
+        }
+        // in list order, with what each held to start the keyset from
+        final int[] ordered = pages.clone();
+        Arrays.sort(ordered);
+        final ArticlePage[] anchors = new ArticlePage[ordered.length];
+        for (int i = 0; i < ordered.length; i++) {
+            anchors[i] = exact ? null : mPages.get(ordered[i]);
+        }
+        // What the list shows now, to compare the new rows with. The first load has nothing
+        // to compare with. Pages are immutable, the worker can read them.
+        final int oldCount = mCount;
+        final SparseArray<ArticlePage> oldPages = generation > 1 ? mPages.clone() : null;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) {
+                    // another change came in, the reload queued for it reads everything
+                    return;
+                }
+                final int count = queryCount();
+                SparseArray<ArticlePage> read = queryPages(generation, ordered, anchors, count);
+                if (read != null && !exact && !fits(read, count)) {
+                    // rows were removed above a run, or added above one at the end
+                    read = queryPages(generation, ordered, new ArticlePage[ordered.length],
+                            count);
+                }
+                if (read == null) {
+                    return;
+                }
+                final SparseArray<ArticlePage> newPages = read;
+                final DiffUtil.DiffResult changes = oldPages != null
+                        ? diff(oldCount, oldPages, count, newPages) : null;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReloaded(generation, count, pages, newPages, changes);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads {@code pages}, in list order, the first of each run of consecutive pages from the
+     * first row of its anchor if it has one, by offset otherwise, the rest of the run from the
+     * page before. Returns null if another reload started meanwhile.
+     */
+    private SparseArray<ArticlePage> queryPages(int generation, int[] pages,
+            ArticlePage[] anchors, int count) {
+        final SparseArray<ArticlePage> read = new SparseArray<ArticlePage>();
+        for (int i = 0; i < pages.length; i++) {
+            if (generation != mGeneration) {
+                return null;
+            }
+            final int page = pages[i];
+            if (page * PAGE_SIZE >= count) {
+                break;
+            }
+            final ArticlePage previous = read.get(page - 1);
+            final Uri uri;
+            if (previous != null) {
+                if (previous.getCount() < PAGE_SIZE) {
+                    // the end of the table
+                    break;
+                }
+                final int last = previous.getFirstPosition() + previous.getCount() - 1;
+                uri = ItemsContract.Items.buildPageAfterUri(previous.getPublishedDate(last),
+                        previous.getId(last), PAGE_SIZE);
+            } else if (page > 0 && anchors[i] != null && anchors[i].getCount() > 0) {
+                final int first = anchors[i].getFirstPosition();
+                // the page after the row right before the anchor row, so it starts with it
+                uri = ItemsContract.Items.buildPageAfterUri(anchors[i].getPublishedDate(first),
+                        anchors[i].getId(first) + 1, PAGE_SIZE);
+            } else {
+                uri = ItemsContract.Items.buildPageUri(page * PAGE_SIZE, PAGE_SIZE);
+            }
+            final ArticlePage loaded = queryPage(uri, page);
+            if (loaded != null && loaded.getCount() > 0) {
+                read.put(page, loaded);
+            }
+        }
+        return read;
+    }
+
+    /** Whether the pages end where the table does, if they get there, and not after. */
+    private static boolean fits(SparseArray<ArticlePage> pages, int count) {
+        for (int i = 0; i < pages.size(); i++) {
+            final ArticlePage page = pages.valueAt(i);
+            final int end = page.getFirstPosition() + page.getCount();
+            if (end > count || (page.getCount() < PAGE_SIZE && end != count)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @param pages page indexes, least recently used first */
+    private void onReloaded(int generation, int count, int[] pages,
+            SparseArray<ArticlePage> newPages, DiffUtil.DiffResult changes) {
+        if (generation != mGeneration || mClosed) {
+            return;
+        }
+
+        mPages.clear();
+        mPageOrder.clear();
+        for (int page : pages) {
+            if (newPages.get(page) != null) {
+                putPage(page, newPages.get(page));
+            }
+        }
+        mCount = count;
+        if (changes != null) {
+            mCallbacks.onRowsChanged(changes);
+        } else {
+            mCallbacks.onDataSetChanged();
+        }
+    }
+
+    /**
+     * Compares the rows before and after a reload by position. Rows known on one side only, or
+     * on neither, can't be compared; they count as the same as other unknown rows and different
+     * from known ones, which keeps the result consistent whatever pages were resident.
+     */
+    private static DiffUtil.DiffResult diff(final int oldCount,
+            final SparseArray<ArticlePage> oldPages, final int newCount,
+            final SparseArray<ArticlePage> newPages) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldCount;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newCount;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                final ArticlePage oldPage = pageOf(oldPages, oldPosition);
+                final ArticlePage newPage = pageOf(newPages, newPosition);
+                if (oldPage == null || newPage == null) {
+                    return oldPage == newPage;
+                }
+                return oldPage.getId(oldPosition) == newPage.getId(newPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                final ArticlePage oldPage = pageOf(oldPages, oldPosition);
+                return oldPage == null || oldPage.isSameRow(oldPosition,
+                        pageOf(newPages, newPosition), newPosition);
+            }
+        }, false);
+    }
+
+    private static ArticlePage pageOf(SparseArray<ArticlePage> pages, int position) {
+        final ArticlePage page = pages.get(position / PAGE_SIZE);
+        return page != null && page.contains(position) ? page : null;
+    }
+
+    private int queryCount() {
+        final Cursor cursor = mResolver.query(ItemsContract.Items.buildDirUri(),
+                new String[]{"count(*)"}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Id of the row following the page, {@link #NO_ID} at the end of the table. */
+    private long queryIdAfter(ArticlePage page) {
+        if (page.getCount() == 0) {
+            return NO_ID;
+        }
+        final int last = page.getFirstPosition() + page.getCount() - 1;
+        final Cursor cursor = mResolver.query(
+                ItemsContract.Items.buildPageAfterUri(page.getPublishedDate(last),
+                        page.getId(last), 1),
+                new String[]{ItemsContract.Items._ID}, null, null,
+                ItemsContract.Items.DEFAULT_SORT);
+        if (cursor == null) {
+            return NO_ID;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : NO_ID;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private ArticlePage queryPage(Uri uri, int page) {
+        final Cursor cursor = mResolver.query(uri, ArticleLoader.ListQuery.PROJECTION, null, null,
+                ItemsContract.Items.DEFAULT_SORT);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return ArticlePage.from(cursor, page * PAGE_SIZE, mStrings);
+        } finally {
+            cursor.close();
+        }
+    }
+}
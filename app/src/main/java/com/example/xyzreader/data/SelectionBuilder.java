@@ -29,6 +29,8 @@ import java.util.HashMap;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.CancellationSignal;
 import android.text.TextUtils;
 
 /**
@@ -185,10 +187,29 @@ public class SelectionBuilder {
      */
     public Cursor query(SQLiteDatabase db, String[] columns, String groupBy,
             String having, String orderBy, String limit) {
+        return query(db, columns, groupBy, having, orderBy, limit, null);
+    }
+
+    /**
+     * Execute query using the current internal state as {@code WHERE} clause, abandoning it
+     * when {@code cancellationSignal} fires.
+     */
+    public Cursor query(SQLiteDatabase db, String[] columns, String groupBy,
+            String having, String orderBy, String limit, CancellationSignal cancellationSignal) {
+        assertTable();
+        if (columns != null) mapColumns(columns);
+        return db.query(false, mTable, columns, getSelection(), getSelectionArgs(), groupBy,
+                having, orderBy, limit, cancellationSignal);
+    }
+
+    /**
+     * Return the {@code SELECT} statement {@link #query} would run, for inspecting its plan.
+     */
+    public String buildQuery(String[] columns, String orderBy) {
         assertTable();
         if (columns != null) mapColumns(columns);
-        return db.query(mTable, columns, getSelection(), getSelectionArgs(), groupBy, having,
-                orderBy, limit);
+        return SQLiteQueryBuilder.buildQueryString(false, mTable, columns, getSelection(), null,
+                null, orderBy, null);
     }
 
     /**
@@ -0,0 +1,62 @@
+package com.example.xyzreader.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.xyzreader.remote.FeedValidators;
+
+/**
+ * Persisted bookkeeping of {@link UpdaterService}: the validators of the last feed that was
+ * applied and counters of how many refreshes turned out to be no-ops.
+ */
+public class SyncState {
+    private static final String PREFS_NAME = "sync_state";
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_SCHEMA_VERSION = "schema_version";
+    private static final String KEY_FETCH_COUNT = "fetch_count";
+    private static final String KEY_NOT_MODIFIED_COUNT = "not_modified_count";
+
+    private final SharedPreferences mPrefs;
+
+    public SyncState(Context context) {
+        mPrefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public FeedValidators getValidators() {
+        // A schema upgrade recreates the table empty, a 304 for the old feed would keep it so.
+        if (mPrefs.getInt(KEY_SCHEMA_VERSION, 0) != ItemsDatabase.DATABASE_VERSION) {
+            return FeedValidators.NONE;
+        }
+        return new FeedValidators(mPrefs.getString(KEY_ETAG, null),
+                mPrefs.getString(KEY_LAST_MODIFIED, null));
+    }
+
+    public void setValidators(FeedValidators validators) {
+        mPrefs.edit()
+                .putString(KEY_ETAG, validators.etag)
+                .putString(KEY_LAST_MODIFIED, validators.lastModified)
+                .putInt(KEY_SCHEMA_VERSION, ItemsDatabase.DATABASE_VERSION)
+                .apply();
+    }
+
+    /** Count a completed fetch, for the not-modified ratio. */
+    public void recordFetch(boolean notModified) {
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putLong(KEY_FETCH_COUNT, getFetchCount() + 1);
+        if (notModified) {
+            editor.putLong(KEY_NOT_MODIFIED_COUNT, getNotModifiedCount() + 1);
+        }
+        editor.apply();
+    }
+
+    public long getFetchCount() {
+        return mPrefs.getLong(KEY_FETCH_COUNT, 0);
+    }
+
+    public long getNotModifiedCount() {
+        return mPrefs.getLong(KEY_NOT_MODIFIED_COUNT, 0);
+    }
+}
@@ -5,20 +5,28 @@ import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.OperationApplicationException;
+import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.RemoteException;
+import android.text.Html;
 import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
+import com.example.xyzreader.remote.FetchResult;
 import com.example.xyzreader.remote.RemoteEndpointUtil;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 public class UpdaterService extends IntentService {
     private static final String TAG = "UpdaterService";
@@ -28,14 +36,36 @@ public class UpdaterService extends IntentService {
     public static final String EXTRA_REFRESHING
             = "com.example.xyzreader.intent.extra.REFRESHING";
 
+    /** Number of rows or operations buffered before they are written to the provider. */
+    private static final int BATCH_SIZE = 50;
+
+    /** Characters of the excerpt stored for the list. */
+    private static final int EXCERPT_LENGTH = 200;
+    /** Characters of the raw body the excerpt is made from, markup included. */
+    private static final int EXCERPT_SOURCE_LENGTH = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The feed as downloaded, in the cache dir, until it has been applied. */
+    private static final String STAGING_FILE = "feed.json";
+
+    private static final String[] HASHED_COLUMNS = {
+            ItemsContract.Items.SERVER_ID,
+            ItemsContract.Items.AUTHOR,
+            ItemsContract.Items.TITLE,
+            ItemsContract.Items.BODY,
+            ItemsContract.Items.THUMB_URL,
+            ItemsContract.Items.PHOTO_URL,
+            ItemsContract.Items.ASPECT_RATIO,
+            ItemsContract.Items.PUBLISHED_DATE,
+    };
+
     public UpdaterService() {
         super(TAG);
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        Time time = new Time();
-
         ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
         NetworkInfo ni = cm.getActiveNetworkInfo();
         if (ni == null || !ni.isConnected()) {
@@ -45,43 +75,278 @@ public class UpdaterService extends IntentService {
 
         sendStickyBroadcast(
                 new Intent(BROADCAST_ACTION_STATE_CHANGE).putExtra(EXTRA_REFRESHING, true));
-
         // Don't even inspect the intent, we only do one thing, and that's fetch content.
-        ArrayList<ContentProviderOperation> cpo = new ArrayList<ContentProviderOperation>();
+        try {
+            sync();
+        } finally {
+            // also after a failed write, or the list keeps showing the refresh spinner
+            sendStickyBroadcast(
+                    new Intent(BROADCAST_ACTION_STATE_CHANGE).putExtra(EXTRA_REFRESHING, false));
+        }
+    }
+
+    private void sync() {
+        final ArrayList<ContentProviderOperation> cpo = new ArrayList<ContentProviderOperation>();
 
-        Uri dirUri = ItemsContract.Items.buildDirUri();
+        final Uri dirUri = ItemsContract.Items.buildDirUri();
+        final Time time = new Time();
 
-        // Delete all items
-        cpo.add(ContentProviderOperation.newDelete(dirUri).build());
+        // server_id -> content hash of what we already have. Whatever is left in here once the
+        // whole feed has been read is no longer listed by the server. Only loaded once the
+        // first item arrives, along with the sync's transaction, see beginSync(); an unchanged
+        // feed never touches the database.
+        final HashMap<String, String> existing = new HashMap<String, String>();
+        final boolean[] existingLoaded = new boolean[1];
 
+        final SyncState syncState = new SyncState(this);
+        final UpsertBuffer upserts = new UpsertBuffer(dirUri);
+        final File staging = new File(getCacheDir(), STAGING_FILE);
+
+        FetchResult applied = null;
         try {
-            JSONArray array = RemoteEndpointUtil.fetchJsonArray();
-            if (array == null) {
-                throw new JSONException("Invalid parsed item array" );
+            // The feed is downloaded to a file before the first item is handed out, so the
+            // sync's transaction never waits on the network. Items are parsed from there and
+            // written out in small batches, so only BATCH_SIZE articles are ever held in
+            // memory at once.
+            FetchResult result = RemoteEndpointUtil.fetchItems(syncState.getValidators(),
+                    staging, new RemoteEndpointUtil.ItemHandler() {
+                @Override
+                public void onItem(JsonReader reader) throws IOException {
+                    if (!existingLoaded[0]) {
+                        // from here on the transaction has to be ended
+                        existingLoaded[0] = true;
+                        beginSync(existing);
+                    }
+
+                    ContentValues values = upserts.next();
+                    readItem(reader, time, values);
+                    String serverId = values.getAsString(ItemsContract.Items.SERVER_ID);
+                    String hash = values.getAsString(ItemsContract.Items.CONTENT_HASH);
+
+                    // New and changed articles are both upserted on their server id, unchanged
+                    // ones leave their slot in the buffer to the next item.
+                    String oldHash = existing.remove(serverId);
+                    if (oldHash == null || !oldHash.equals(hash)) {
+                        upserts.commit();
+                    }
+                }
+            });
+
+            syncState.recordFetch(result.notModified);
+            Log.i(TAG, "Feed not modified " + syncState.getNotModifiedCount() + " of "
+                    + syncState.getFetchCount() + " fetches");
+
+            if (!result.notModified) {
+                upserts.flush();
+
+                if (!existingLoaded[0]) {
+                    // empty feed
+                    existingLoaded[0] = true;
+                    beginSync(existing);
+                }
+
+                // Only prune once the feed has been read completely, a dropped connection must
+                // not look like the server removed everything after that point.
+                for (String serverId : existing.keySet()) {
+                    cpo.add(ContentProviderOperation.newDelete(dirUri)
+                            .withSelection(ItemsContract.Items.SERVER_ID + "=?",
+                                    new String[]{serverId})
+                            .build());
+                    if (cpo.size() >= BATCH_SIZE) {
+                        applyBatch(cpo);
+                    }
+                }
+
+                applyBatch(cpo);
+                applied = result;
             }
 
-            for (int i = 0; i < array.length(); i++) {
-                ContentValues values = new ContentValues();
-                JSONObject object = array.getJSONObject(i);
-                values.put(ItemsContract.Items.SERVER_ID, object.getString("id" ));
-                values.put(ItemsContract.Items.AUTHOR, object.getString("author" ));
-                values.put(ItemsContract.Items.TITLE, object.getString("title" ));
-                values.put(ItemsContract.Items.BODY, object.getString("body" ));
-                values.put(ItemsContract.Items.THUMB_URL, object.getString("thumb" ));
-                values.put(ItemsContract.Items.PHOTO_URL, object.getString("photo" ));
-                values.put(ItemsContract.Items.ASPECT_RATIO, object.getString("aspect_ratio" ));
-                time.parse3339(object.getString("published_date"));
-                values.put(ItemsContract.Items.PUBLISHED_DATE, time.toMillis(false));
-                cpo.add(ContentProviderOperation.newInsert(dirUri).withValues(values).build());
+        } catch (IOException e) {
+            Log.e(TAG, "Error updating content.", e);
+        } finally {
+            if (existingLoaded[0]) {
+                // rolls back unless everything was applied, whatever was thrown
+                getContentResolver().call(dirUri, ItemsContract.METHOD_END_BATCH,
+                        applied != null ? ItemsContract.ARG_COMMIT : null, null);
             }
+            staging.delete();
+        }
+
+        if (applied != null) {
+            // Everything is committed, from now on this version of the feed can be skipped.
+            syncState.setValidators(applied.validators);
+        }
+    }
 
+    private void applyBatch(ArrayList<ContentProviderOperation> cpo) throws IOException {
+        if (cpo.isEmpty()) {
+            return;
+        }
+        try {
             getContentResolver().applyBatch(ItemsContract.CONTENT_AUTHORITY, cpo);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IOException("Error applying batch", e);
+        }
+        cpo.clear();
+    }
 
-        } catch (JSONException | RemoteException | OperationApplicationException e) {
-            Log.e(TAG, "Error updating content.", e);
+    /**
+     * Rows waiting to be written with {@link ItemsProvider#bulkInsert}. The {@link ContentValues}
+     * are reused from one batch to the next.
+     */
+    private class UpsertBuffer {
+        private final Uri mUri;
+        private final ContentValues[] mRows = new ContentValues[BATCH_SIZE];
+        private int mCount;
+
+        UpsertBuffer(Uri uri) {
+            mUri = uri;
         }
 
-        sendStickyBroadcast(
-                new Intent(BROADCAST_ACTION_STATE_CHANGE).putExtra(EXTRA_REFRESHING, false));
+        /** Returns the cleared slot for the next row, only kept if {@link #commit()} follows. */
+        ContentValues next() {
+            if (mRows[mCount] == null) {
+                mRows[mCount] = new ContentValues();
+            }
+            mRows[mCount].clear();
+            return mRows[mCount];
+        }
+
+        void commit() {
+            mCount++;
+            if (mCount == mRows.length) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (mCount == 0) {
+                return;
+            }
+            getContentResolver().bulkInsert(mUri,
+                    mCount == mRows.length ? mRows : Arrays.copyOf(mRows, mCount));
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Opens the transaction the sync is written in and reads what we already have. The whole
+     * sync is one transaction: readers keep seeing the previous version of the feed until all
+     * of it has been applied, and a sync that fails halfway leaves nothing behind. Other
+     * writes wait for it meanwhile, which only holds up storing photo colors. The feed has
+     * been downloaded by then, so that is only as long as applying it takes.
+     */
+    private void beginSync(HashMap<String, String> existing) {
+        getContentResolver().call(ItemsContract.Items.buildDirUri(),
+                ItemsContract.METHOD_BEGIN_BATCH, null, null);
+        queryExistingHashes(existing);
+    }
+
+    private void queryExistingHashes(HashMap<String, String> hashes) {
+        Cursor cursor = getContentResolver().query(ItemsContract.Items.buildDirUri(),
+                new String[]{ItemsContract.Items.SERVER_ID, ItemsContract.Items.CONTENT_HASH},
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    hashes.put(cursor.getString(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void readItem(JsonReader reader, Time time, ContentValues values)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    values.put(ItemsContract.Items.SERVER_ID, reader.nextString());
+                    break;
+                case "author":
+                    values.put(ItemsContract.Items.AUTHOR, reader.nextString());
+                    break;
+                case "title":
+                    values.put(ItemsContract.Items.TITLE, reader.nextString());
+                    break;
+                case "body":
+                    values.put(ItemsContract.Items.BODY, reader.nextString());
+                    break;
+                case "thumb":
+                    values.put(ItemsContract.Items.THUMB_URL, reader.nextString());
+                    break;
+                case "photo":
+                    values.put(ItemsContract.Items.PHOTO_URL, reader.nextString());
+                    break;
+                case "aspect_ratio":
+                    values.put(ItemsContract.Items.ASPECT_RATIO, reader.nextString());
+                    break;
+                case "published_date":
+                    time.parse3339(reader.nextString());
+                    values.put(ItemsContract.Items.PUBLISHED_DATE, time.toMillis(false));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        values.put(ItemsContract.Items.EXCERPT,
+                excerpt(values.getAsString(ItemsContract.Items.BODY)));
+        values.put(ItemsContract.Items.CONTENT_HASH, contentHash(values));
+    }
+
+    /**
+     * Plain text start of the body, so the list never has to load the body itself.
+     */
+    private static String excerpt(String body) {
+        if (body == null) {
+            return "";
+        }
+        // Only the start of the body is converted, cutting into a tag just loses that tag.
+        String text = Html.fromHtml(body.length() > EXCERPT_SOURCE_LENGTH
+                ? body.substring(0, EXCERPT_SOURCE_LENGTH) : body).toString();
+        text = text.replaceAll("\\s+", " ").trim();
+        if (text.length() <= EXCERPT_LENGTH) {
+            return text;
+        }
+        int end = text.lastIndexOf(' ', EXCERPT_LENGTH);
+        return text.substring(0, end > 0 ? end : EXCERPT_LENGTH) + "\u2026";
+    }
+
+    /**
+     * Digest over every synced column, stable across runs so an unchanged article maps to
+     * the same value and can be skipped.
+     */
+    private static String contentHash(ContentValues values) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String column : HASHED_COLUMNS) {
+            String value = values.getAsString(column);
+            if (value != null) {
+                digest.update(value.getBytes(UTF_8));
+            }
+            // separator, so that ("ab", "c") and ("a", "bc") differ
+            digest.update((byte) 0);
+        }
+
+        byte[] bytes = digest.digest();
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
     }
 }
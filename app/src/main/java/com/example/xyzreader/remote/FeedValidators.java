@@ -0,0 +1,25 @@
+package com.example.xyzreader.remote;
+
+import android.text.TextUtils;
+
+/**
+ * HTTP cache validators of the last feed that was fully applied, sent back on the next fetch
+ * so an unchanged feed can be answered with {@code 304 Not Modified}.
+ */
+public class FeedValidators {
+    public static final FeedValidators NONE = new FeedValidators(null, null);
+
+    /** Value of the {@code ETag} header, may be null. */
+    public final String etag;
+    /** Value of the {@code Last-Modified} header, may be null. */
+    public final String lastModified;
+
+    public FeedValidators(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public boolean isEmpty() {
+        return TextUtils.isEmpty(etag) && TextUtils.isEmpty(lastModified);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.xyzreader.remote;
+
+/**
+ * Outcome of {@link RemoteEndpointUtil#fetchItems}.
+ */
+public class FetchResult {
+    /** True if the server answered 304 and no items were handed out. */
+    public final boolean notModified;
+    /** Validators of the response, to be stored once its items have been applied. */
+    public final FeedValidators validators;
+    public final int itemCount;
+
+    FetchResult(boolean notModified, FeedValidators validators, int itemCount) {
+        this.notModified = notModified;
+        this.validators = validators;
+        this.itemCount = itemCount;
+    }
+}
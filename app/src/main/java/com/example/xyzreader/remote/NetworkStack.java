@@ -0,0 +1,60 @@
+package com.example.xyzreader.remote;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * The one HTTP client of the process. The feed fetch and the image loader share its connection
+ * pool, so TLS sessions and HTTP/2 connections to a host are reused between them, and its
+ * size-bounded disk cache.
+ */
+public class NetworkStack {
+    private static final String CACHE_DIR_NAME = "http";
+    private static final long CACHE_SIZE_BYTES = 50 * 1024 * 1024;
+
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static volatile OkHttpClient sClient;
+
+    private NetworkStack() {
+    }
+
+    /**
+     * Creates the shared client. Called once from {@code XYZApplication#onCreate}.
+     */
+    public static void init(Context context) {
+        if (sClient != null) {
+            return;
+        }
+        synchronized (NetworkStack.class) {
+            if (sClient == null) {
+                File cacheDir = new File(context.getApplicationContext().getCacheDir(),
+                        CACHE_DIR_NAME);
+                sClient = new OkHttpClient.Builder()
+                        .cache(new Cache(cacheDir, CACHE_SIZE_BYTES))
+                        .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                                KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                        // multiplex image requests over a single connection where the host allows
+                        .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                        .build();
+            }
+        }
+    }
+
+    public static OkHttpClient getClient() {
+        OkHttpClient client = sClient;
+        if (client == null) {
+            throw new IllegalStateException("NetworkStack.init() has not been called");
+        }
+        return client;
+    }
+}
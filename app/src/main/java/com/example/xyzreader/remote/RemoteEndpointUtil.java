@@ -1,56 +1,112 @@
 package com.example.xyzreader.remote;
 
-import android.util.Log;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONTokener;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
 
+import okhttp3.CacheControl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
 
 public class RemoteEndpointUtil {
-    private static final String TAG = "RemoteEndpointUtil";
-
     private RemoteEndpointUtil() {
     }
 
-    public static JSONArray fetchJsonArray() {
-        String itemsJson = null;
-        try {
-            itemsJson = fetchPlainText(Config.BASE_URL);
-        } catch (IOException e) {
-            Log.e(TAG, "Error fetching items JSON", e);
-            return null;
+    /**
+     * Receives the items of the remote feed one at a time, as they are read back from the
+     * downloaded copy.
+     */
+    public interface ItemHandler {
+        /**
+         * Called with the reader positioned at the start of an item object. Implementations
+         * must consume exactly that one object.
+         */
+        void onItem(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Streams the items array at {@link Config#BASE_URL} into the given handler without ever
+     * holding the whole document in memory. If {@code validators} are given the request is
+     * made conditional, and a {@code 304} answer is reported without calling the handler.
+     * <p>
+     * The response is written to {@code staging} as it arrives and only parsed once it is
+     * complete, so the handler never waits on the network. The caller deletes the file.
+     */
+    public static FetchResult fetchItems(FeedValidators validators, File staging,
+            ItemHandler handler) throws IOException {
+        return fetchItems(Config.BASE_URL, validators, staging, handler);
+    }
+
+    static FetchResult fetchItems(URL url, FeedValidators validators, File staging,
+            ItemHandler handler) throws IOException {
+        OkHttpClient client = NetworkStack.getClient();
+
+        // The items are kept in the database, a second copy in the HTTP cache is wasted space.
+        // Revalidation is done with our own validators instead.
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .cacheControl(new CacheControl.Builder().noStore().build());
+        if (!TextUtils.isEmpty(validators.etag)) {
+            builder.header("If-None-Match", validators.etag);
+        }
+        if (!TextUtils.isEmpty(validators.lastModified)) {
+            builder.header("If-Modified-Since", validators.lastModified);
         }
 
-        // Parse JSON
+        Response response = client.newCall(builder.build()).execute();
+        ResponseBody body = response.body();
         try {
-            JSONTokener tokener = new JSONTokener(itemsJson);
-            Object val = tokener.nextValue();
-            if (!(val instanceof JSONArray)) {
-                throw new JSONException("Expected JSONArray");
+            if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new FetchResult(true, validators, 0);
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response " + response.code() + " for " + url);
             }
-            return (JSONArray) val;
-        } catch (JSONException e) {
-            Log.e(TAG, "Error parsing items JSON", e);
-        }
-
-        return null;
-    }
 
-    static String fetchPlainText(URL url) throws IOException {
-        OkHttpClient client = new OkHttpClient();
+            BufferedSink sink = Okio.buffer(Okio.sink(staging));
+            try {
+                sink.writeAll(body.source());
+            } finally {
+                sink.close();
+            }
+        } finally {
+            body.close();
+        }
 
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new BufferedInputStream(new FileInputStream(staging)), "UTF-8"));
+        try {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new IOException("Expected JSON array but was " + reader.peek());
+            }
 
-        Response response = client.newCall(request).execute();
-        return response.body().string();
+            int count = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                handler.onItem(reader);
+                count++;
+            }
+            reader.endArray();
+            return new FetchResult(false,
+                    new FeedValidators(response.header("ETag"), response.header("Last-Modified")),
+                    count);
+        } catch (IllegalStateException e) {
+            // JsonReader reports malformed documents this way
+            throw new IOException("Error parsing items JSON", e);
+        } finally {
+            reader.close();
+        }
     }
 }
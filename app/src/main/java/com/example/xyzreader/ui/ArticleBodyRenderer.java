@@ -0,0 +1,164 @@
+package com.example.xyzreader.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+import android.text.Html;
+import android.text.Spanned;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Turns article bodies from HTML into {@link Spanned} text on a worker thread, split into
+ * chunks of whole paragraphs so only the ones on screen need laying out, and keeps the
+ * results of the latest ones by article id and content hash, so an article edited by a sync
+ * is parsed again. The pages next to the one shown are parsed ahead with {@link #prefetch}, from
+ * the bodies {@link com.example.xyzreader.data.ArticleRepository} reads.
+ * <p>
+ * Call from the main thread. Bodies are parsed one at a time in the order asked for, so one
+ * asked for while its prefetch is queued is found in the cache rather than parsed twice.
+ */
+public class ArticleBodyRenderer {
+    /** Characters of parsed text kept, a few long articles' worth. */
+    private static final int MAX_CACHED_CHARS = 512 * 1024;
+    /**
+     * Paragraphs are put together into chunks of at least this many characters, so a body of
+     * short paragraphs isn't a view per line.
+     */
+    private static final int MIN_CHUNK_CHARS = 1000;
+
+    private static ArticleBodyRenderer sInstance;
+
+    public static ArticleBodyRenderer getInstance() {
+        if (sInstance == null) {
+            sInstance = new ArticleBodyRenderer();
+        }
+        return sInstance;
+    }
+
+    public interface Callback {
+        void onBodyRendered(long itemId, List<CharSequence> paragraphs);
+    }
+
+    /** A body on its way, see {@link #render}. */
+    public static class Request {
+        private volatile boolean mCancelled;
+
+        /** The callback won't be called. */
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<String, List<CharSequence>> mCache =
+            new LruCache<String, List<CharSequence>>(MAX_CACHED_CHARS) {
+        @Override
+        protected int sizeOf(String key, List<CharSequence> paragraphs) {
+            int length = 1;
+            for (CharSequence paragraph : paragraphs) {
+                length += paragraph.length();
+            }
+            return length;
+        }
+    };
+
+    private ArticleBodyRenderer() {
+    }
+
+    private static String key(long itemId, String contentHash) {
+        return itemId + "|" + contentHash;
+    }
+
+    /** The parsed body in chunks of paragraphs if it is cached, null otherwise. */
+    public List<CharSequence> getCached(long itemId, String contentHash) {
+        return mCache.get(key(itemId, contentHash));
+    }
+
+    /**
+     * Parses {@code html} in the background and hands the result to {@code callback} on the
+     * main thread, unless the returned request is cancelled first.
+     */
+    public Request render(final long itemId, final String contentHash, final String html,
+            final Callback callback) {
+        final Request request = new Request();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.mCancelled) {
+                    return;
+                }
+                final List<CharSequence> paragraphs = parse(itemId, contentHash, html);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.mCancelled) {
+                            callback.onBodyRendered(itemId, paragraphs);
+                        }
+                    }
+                });
+            }
+        });
+        return request;
+    }
+
+    /** Parses {@code html} into the cache in the background if it isn't there. */
+    public void prefetch(final long itemId, final String contentHash, final String html) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                parse(itemId, contentHash, html);
+            }
+        });
+    }
+
+    /** On the worker thread. */
+    private List<CharSequence> parse(long itemId, String contentHash, String html) {
+        final String key = key(itemId, contentHash);
+        List<CharSequence> paragraphs = mCache.get(key);
+        if (paragraphs != null) {
+            return paragraphs;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        final Spanned body = Html.fromHtml(html != null ? html : "");
+        paragraphs = Collections.unmodifiableList(split(body));
+        mCache.put(key, paragraphs);
+        Timber.d("ArticleBodyRenderer: %d, %d chars in %d chunks parsed in %d ms", itemId,
+                body.length(), paragraphs.size(), SystemClock.elapsedRealtime() - start);
+        return paragraphs;
+    }
+
+    /**
+     * Splits at blank lines, the paragraph breaks {@link Html#fromHtml} leaves, into chunks of
+     * at least {@link #MIN_CHUNK_CHARS}. A chunk keeps the first line break of the blank line
+     * that ends it, so paragraphs stay a blank line apart as one text would show them.
+     */
+    static List<CharSequence> split(Spanned body) {
+        final List<CharSequence> chunks = new ArrayList<CharSequence>();
+        final String text = body.toString();
+        int start = 0;
+        int breakAt = text.indexOf("\n\n", start + MIN_CHUNK_CHARS);
+        while (breakAt >= 0) {
+            chunks.add(body.subSequence(start, breakAt + 1));
+            start = breakAt + 2;
+            breakAt = text.indexOf("\n\n", start + MIN_CHUNK_CHARS);
+        }
+        // drop the line breaks the last paragraph ends with
+        int end = text.length();
+        while (end > start && text.charAt(end - 1) == '\n') {
+            end--;
+        }
+        if (end > start || chunks.isEmpty()) {
+            chunks.add(body.subSequence(start, end));
+        }
+        return chunks;
+    }
+}
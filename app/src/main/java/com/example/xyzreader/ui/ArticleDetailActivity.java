@@ -2,9 +2,6 @@ package com.example.xyzreader.ui;
 
 import android.app.Fragment;
 import android.app.FragmentManager;
-import android.app.LoaderManager;
-import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Build;
 import android.os.Bundle;
@@ -20,21 +17,26 @@ import android.view.ViewTreeObserver;
 import android.view.WindowInsets;
 
 import com.example.xyzreader.R;
-import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.ArticleRepository;
 import com.example.xyzreader.data.ItemsContract;
 
 import timber.log.Timber;
 
 /**
  * An activity representing a single Article detail screen, letting you swipe between articles.
+ * The pager and its pages read the articles from one {@link ArticleRepository}, kept across
+ * configuration changes by an {@link ArticleRepositoryFragment}.
  */
 public class ArticleDetailActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<Cursor> {
+        implements ArticleRepository.Listener {
+    private static final String STATE_SELECTED_ITEM_ID = "selected_item_id";
 
-    private Cursor mCursor;
+    private ArticleRepository mArticles;
     private long mStartId;
 
     private long mSelectedItemId;
+    /** Whether {@link #mSelectedItemId} has been shown since the activity was created. */
+    private boolean mSelectionRestored;
     private int mSelectedItemUpButtonFloor = Integer.MAX_VALUE;
     private int mTopInset;
 
@@ -58,7 +60,9 @@ public class ArticleDetailActivity extends AppCompatActivity
         }
         setContentView(R.layout.activity_article_detail);
 
-        getLoaderManager().initLoader(0, null, this);
+        // The pages created from here on use it too; the activity hears of changes first.
+        mArticles = ArticleRepositoryFragment.get(this);
+        mArticles.addListener(this);
 
         // Set Adapter for ViewPager
         mPagerAdapter = new MyPagerAdapter(getFragmentManager());
@@ -82,12 +86,10 @@ public class ArticleDetailActivity extends AppCompatActivity
             // When page swipe is done, do this
             @Override
             public void onPageSelected(int position) {
-                if (mCursor != null) {
-                    mCursor.moveToPosition(position);
-                }
                 // Get itemId from scrolled page
-                mSelectedItemId = mCursor.getLong(ArticleLoader.Query._ID);
+                mSelectedItemId = mArticles.getId(position);
                 updateUpButtonPosition();
+                prefetchBodies(position);
             }
         });
 
@@ -126,40 +128,78 @@ public class ArticleDetailActivity extends AppCompatActivity
                 // mSelectedItemId might be updated when the page is swiped
                 mSelectedItemId = mStartId;
             }
+        } else {
+            mSelectedItemId = savedInstanceState.getLong(STATE_SELECTED_ITEM_ID);
+        }
+
+        // Still there after a configuration change, then it won't report a change for now.
+        if (mArticles.isLoaded()) {
+            restoreSelection();
         }
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newAllArticlesInstance(this);
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLong(STATE_SELECTED_ITEM_ID, mSelectedItemId);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor cursor) {
-        mCursor = cursor;
-        mPagerAdapter.notifyDataSetChanged();
+    protected void onDestroy() {
+        super.onDestroy();
+        // the repository outlives this instance on a configuration change
+        mArticles.removeListener(this);
+    }
 
-        // mStartId was retrieved from intent
-        if (mStartId > 0) {
-            mCursor.moveToFirst();
-            // TODO: optimize
-            // loop cursor row from first until cursor position reached to last row
-            while (!mCursor.isAfterLast()) {
-                if (mCursor.getLong(ArticleLoader.Query._ID) == mStartId) {
-                    final int position = mCursor.getPosition();
-                    mPager.setCurrentItem(position, false);
-                    break;
-                }
-                mCursor.moveToNext();
-            }
-            mStartId = 0;
-        }
+    /** The articles the pages show. */
+    public ArticleRepository getArticleRepository() {
+        return mArticles;
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> cursorLoader) {
-        mCursor = null;
+    public void onArticlesChanged() {
         mPagerAdapter.notifyDataSetChanged();
+        if (!mSelectionRestored) {
+            restoreSelection();
+        }
+    }
+
+    /**
+     * Shows the article from the intent, or the one shown before the activity was recreated,
+     * wherever it is in the list now.
+     */
+    private void restoreSelection() {
+        mSelectionRestored = true;
+        final int position = mArticles.findPosition(mSelectedItemId);
+        if (position >= 0) {
+            mPager.setCurrentItem(position, false);
+            prefetchBodies(position);
+        }
+        mStartId = 0;
+    }
+
+    /**
+     * Has the details of the pages next to {@code position} read and their bodies parsed
+     * ahead, so swiping to them doesn't wait for it.
+     */
+    private void prefetchBodies(int position) {
+        final ArticleBodyRenderer renderer = ArticleBodyRenderer.getInstance();
+        for (int neighbour = position - 1; neighbour <= position + 1; neighbour += 2) {
+            if (neighbour < 0 || neighbour >= mArticles.getCount()) {
+                continue;
+            }
+            mArticles.loadDetails(mArticles.getId(neighbour),
+                    new ArticleRepository.DetailsCallback() {
+                        @Override
+                        public void onDetailsLoaded(long itemId,
+                                ArticleRepository.Details details) {
+                            if (details != null) {
+                                renderer.prefetch(itemId, details.getContentHash(),
+                                        details.getBody());
+                            }
+                        }
+                    });
+        }
     }
 
     public void startPostponedTransition(final View sharedElement) {
@@ -211,18 +251,17 @@ public class ArticleDetailActivity extends AppCompatActivity
         public Fragment getItem(int position) {
             // This position is the position of the viewPager
             // and is called every time page swiped
-            mCursor.moveToPosition(position);
             Timber.d("MyPagerAdapter:getItem: position %s", position);
-            // Pass _ID at the cursor position and the position of the item
+            // Pass _ID at the position and the position of the item
             return ArticleDetailFragment.newInstance(
-                    mCursor.getLong(ArticleLoader.Query._ID),
+                    mArticles.getId(position),
                     position,
                     mStartId);
         }
 
         @Override
         public int getCount() {
-            return (mCursor != null) ? mCursor.getCount() : 0;
+            return mArticles.getCount();
         }
     }
 }
@@ -1,43 +1,49 @@
 package com.example.xyzreader.ui;
 
 import android.app.Fragment;
-import android.app.LoaderManager;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.ShareCompat;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.graphics.Palette;
-import android.text.Html;
-import android.text.format.DateUtils;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SimpleItemAnimator;
 import android.text.method.LinkMovementMethod;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.example.xyzreader.R;
-import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.ArticleRepository;
 import com.squareup.picasso.Picasso;
 import com.squareup.picasso.Target;
 
+import java.util.Collections;
+import java.util.List;
+
 import timber.log.Timber;
 
 /**
  * A fragment representing a single Article detail screen. This fragment is
  * either contained in a {@link ArticleListActivity} in two-pane mode (on
  * tablets) or a {@link ArticleDetailActivity} on handsets.
+ * <p>
+ * Everything shown comes from the details the activity's {@link ArticleRepository} reads for
+ * this article; the repository's list only tells whether the article is still there.
  */
-public class ArticleDetailFragment extends Fragment implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class ArticleDetailFragment extends Fragment implements ArticleRepository.Listener,
+        BylineFormatter.Listener {
     private static final String TAG = "ArticleDetailFragment";
 
     public static final String ARG_ITEM_ID = "item_id";
@@ -45,10 +51,18 @@ public class ArticleDetailFragment extends Fragment implements
     public static final String ARG_VISIBLE_FRAGMENT_ID = "fragment_is_visible";
     private static final float PARALLAX_FACTOR = 1.25f;
 
-    private Cursor mCursor;
+    private ArticleRepository mArticles;
+    /** Null until read for the article shown. */
+    private ArticleRepository.Details mDetails;
+    private ArticleRepository.Request mDetailsRequest;
     private long mItemId;
     private View mRootView;
-    private int mMutedColor = 0xFF333333;
+    private static final int DEFAULT_MUTED_COLOR = 0xFF333333;
+    private static final int PALETTE_MAX_COLORS = 12;
+    /** Pixels of the scaled down photo the palette is made from. */
+    private static final int PALETTE_BITMAP_AREA = 112 * 112;
+
+    private int mMutedColor = DEFAULT_MUTED_COLOR;
     private ObservableScrollView mScrollView;
     private DrawInsetsFrameLayout mDrawInsetsFrameLayout;
     private ColorDrawable mStatusBarColorDrawable;
@@ -67,6 +81,19 @@ public class ArticleDetailFragment extends Fragment implements
     private Target mTarget;
     private long mStartId;
 
+    /** The list thumbnail shown until the photo arrives, retained from the memory cache. */
+    private Bitmap mStandInThumbnail;
+    /** When this page was created, for measuring the time to its first pixel. */
+    private long mCreatedAt;
+    private boolean mFirstPixelShown;
+    private boolean mPhotoLoaded;
+    private ArticleBodyRenderer.Request mBodyRequest;
+    /** Meta bar with the title and byline, the first row of {@link #mBodyList}. */
+    private View mHeaderView;
+    private RecyclerView mBodyList;
+    private BodyAdapter mBodyAdapter;
+    private Typeface mBodyTypeface;
+
     /**
      * Mandatory empty constructor for the fragment manager to instantiate the
      * fragment (e.g. upon screen orientation changes).
@@ -88,6 +115,7 @@ public class ArticleDetailFragment extends Fragment implements
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreatedAt = SystemClock.elapsedRealtime();
 
         // Get _ID at the cursor position and the position of the item
         // from MyPager Adapter
@@ -118,11 +146,34 @@ public class ArticleDetailFragment extends Fragment implements
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
-        // In support library r8, calling initLoader for a fragment in a FragmentPagerAdapter in
-        // the fragment's onCreate may cause the same LoaderManager to be dealt to multiple
-        // fragments because their mIndex is -1 (haven't been added to the activity yet). Thus,
-        // we do this in onActivityCreated.
-        getLoaderManager().initLoader(0, null, this);
+        // Shared with the other pages, the articles are read once for all of them.
+        mArticles = getActivityCast().getArticleRepository();
+        mArticles.addListener(this);
+        bindViews();
+    }
+
+    @Override
+    public void onArticlesChanged() {
+        bindViews();
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        // Formatted against the minute tick, which only keeps going while someone listens.
+        BylineFormatter.getInstance(getActivity()).addListener(this);
+        bindByline();
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        BylineFormatter.getInstance(getActivity()).removeListener(this);
+    }
+
+    @Override
+    public void onBylinesExpired() {
+        bindByline();
     }
 
     private void setTransitionName() {
@@ -148,7 +199,17 @@ public class ArticleDetailFragment extends Fragment implements
 
         mPhotoView = (ImageView) mRootView.findViewById(R.id.photo);
         mPhotoContainerView = mRootView.findViewById(R.id.coordinatar_layout);
-        mTitleView = (TextView) mRootView.findViewById(R.id.article_title);
+
+        // Only the paragraphs on screen are laid out. The header row is a single view kept
+        // for the whole fragment, the title in it is a shared element.
+        mBodyList = (RecyclerView) mRootView.findViewById(R.id.article_body_list);
+        mHeaderView = inflater.inflate(R.layout.article_detail_header, mBodyList, false);
+        mTitleView = (TextView) mHeaderView.findViewById(R.id.article_title);
+        mBodyList.setLayoutManager(new LinearLayoutManager(getActivity()));
+        // a change animation would ask for a second header view
+        ((SimpleItemAnimator) mBodyList.getItemAnimator()).setSupportsChangeAnimations(false);
+        mBodyAdapter = new BodyAdapter();
+        mBodyList.setAdapter(mBodyAdapter);
 
         if(mTransitionAnimation){
             setTransitionName();
@@ -199,102 +260,338 @@ public class ArticleDetailFragment extends Fragment implements
     }
 
     private void bindViews() {
-        if (mRootView == null) {
+        if (mRootView == null || mArticles == null) {
+            return;
+        }
+        if (!mArticles.isLoaded()) {
+            // not read yet, onArticlesChanged follows
             return;
         }
 
-        TextView bylineView = (TextView) mRootView.findViewById(R.id.article_byline);
+        TextView bylineView = (TextView) mHeaderView.findViewById(R.id.article_byline);
         bylineView.setMovementMethod(new LinkMovementMethod());
 
-        TextView bodyView = (TextView) mRootView.findViewById(R.id.article_body);
-        bodyView.setTypeface(Typeface.createFromAsset(getResources().getAssets(), "Rosario-Regular.ttf"));
+        mBodyTypeface = FontRegistry.get(getActivity(), FontRegistry.ROSARIO_REGULAR);
 
-        if (mCursor != null) {
+        if (mArticles.findPosition(mItemId) >= 0) {
+            final long start = SystemClock.elapsedRealtime();
             mRootView.setAlpha(0);
             mRootView.setVisibility(View.VISIBLE);
             mRootView.animate().alpha(1);
-            mTitleView.setText(mCursor.getString(ArticleLoader.Query.TITLE));
-
-            Timber.d("ArticleDetailFragment:bindViews: title is %s", mCursor.getString(ArticleLoader.Query.TITLE));
-            bylineView.setText(Html.fromHtml(
-                    DateUtils.getRelativeTimeSpanString(
-                            mCursor.getLong(ArticleLoader.Query.PUBLISHED_DATE),
-                            System.currentTimeMillis(), DateUtils.HOUR_IN_MILLIS,
-                            DateUtils.FORMAT_ABBREV_ALL).toString()
-                            + " by <font color='#ffffff'>"
-                            + mCursor.getString(ArticleLoader.Query.AUTHOR)
-                            + "</font>"));
-            bodyView.setText(Html.fromHtml(mCursor.getString(ArticleLoader.Query.BODY)));
-
-            mTarget = new Target() {
-                @Override
-                public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
-
-                    if (bitmap != null) {
-                        Palette p = Palette.generate(bitmap, 12);
-                        mMutedColor = p.getDarkMutedColor(0xFF333333);
-                        mPhotoView.setImageBitmap(bitmap);
-                        mRootView.findViewById(R.id.meta_bar)
-                                .setBackgroundColor(mMutedColor);
-                        updateStatusBar();
-                    }
-                }
 
-                @Override
-                public void onBitmapFailed(Drawable errorDrawable) {
+            if (mDetailsRequest != null) {
+                mDetailsRequest.cancel();
+                mDetailsRequest = null;
+            }
+            ArticleRepository.Details details = mArticles.getCachedDetails(mItemId);
+            if (details != null) {
+                bindDetails(details, start);
+            } else {
+                mBodyAdapter.setParagraphs(Collections.<CharSequence>emptyList());
+                mDetailsRequest = mArticles.loadDetails(mItemId,
+                        new ArticleRepository.DetailsCallback() {
+                            @Override
+                            public void onDetailsLoaded(long itemId,
+                                    ArticleRepository.Details details) {
+                                mDetailsRequest = null;
+                                if (details != null) {
+                                    bindDetails(details, start);
+                                } else {
+                                    Log.e(TAG, "Error reading item details");
+                                    bindMissing();
+                                }
+                            }
+                        });
+            }
+        } else {
+            bindMissing();
+        }
+
+    }
 
-                }
+    /** Formats the byline again, the relative time in it may read differently by now. */
+    private void bindByline() {
+        if (mRootView == null || mDetails == null) {
+            return;
+        }
+        ((TextView) mHeaderView.findViewById(R.id.article_byline)).setText(
+                BylineFormatter.getInstance(getActivity()).formatWithAuthorColor(mItemId,
+                        mDetails.getPublishedDate(), mDetails.getAuthor(), Color.WHITE));
+    }
 
-                @Override
-                public void onPrepareLoad(Drawable placeHolderDrawable) {
+    private void startTransition() {
+        if (mTransitionAnimation && mItemId == mStartId) {
+            ((ArticleDetailActivity) getActivity()).startPostponedTransition(mPhotoView);
+        }
+    }
+
+    private void bindMissing() {
+        mDetails = null;
+        // the activity waits for this page
+        startTransition();
+        mRootView.setVisibility(View.GONE);
+        mTitleView.setText("N/A");
+        ((TextView) mHeaderView.findViewById(R.id.article_byline)).setText("N/A");
+        mBodyAdapter.setParagraphs(Collections.<CharSequence>singletonList("N/A"));
+    }
 
+    /** The title, byline, photo, its color and the body. */
+    private void bindDetails(ArticleRepository.Details details, long start) {
+        mDetails = details;
+        mTitleView.setText(details.getTitle());
+        bindByline();
+
+        // The thumbnail the list just showed is usually still cached: show it right away,
+        // which gives the shared element transition something to start with, and swap in
+        // the photo once it has been decoded.
+        // A rebind keeps whatever is shown already.
+        if (mPhotoView.getDrawable() == null) {
+            mStandInThumbnail = ImageLoaderHelper.getInstance(getActivity())
+                    .showCachedThumbnail(mPhotoView, details.getThumbUrl());
+            if (mStandInThumbnail != null) {
+                onFirstPixel("thumbnail");
+            }
+        }
+        startTransition();
+
+        bindBody(start);
+
+        final boolean needsPalette = !details.hasMutedColor();
+        if (!needsPalette) {
+            applyMutedColor(details.getMutedColor());
+        }
+
+        mTarget = new Target() {
+            @Override
+            public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+
+                if (bitmap != null) {
+                    mPhotoLoaded = true;
+                    mPhotoView.setImageBitmap(bitmap);
+                    releaseStandInThumbnail();
+                    onFirstPixel("photo from " + from);
+                    if (needsPalette) {
+                        generateMutedColor(bitmap);
+                    }
                 }
-            };
+            }
 
-            Picasso.with(getActivity())
-                    .load(mCursor.getString(ArticleLoader.Query.PHOTO_URL))
-                    .into(mTarget);
+            @Override
+            public void onBitmapFailed(Drawable errorDrawable) {
 
-            if (mTransitionAnimation && mItemId == mStartId) {
-                ((ArticleDetailActivity) getActivity()).startPostponedTransition(mPhotoView);
             }
-        } else {
-            mRootView.setVisibility(View.GONE);
-            mTitleView.setText("N/A");
-            bylineView.setText("N/A");
-            bodyView.setText("N/A");
+
+            @Override
+            public void onPrepareLoad(Drawable placeHolderDrawable) {
+
+            }
+        };
+
+        mPhotoLoaded = false;
+        requestPhoto();
+    }
+
+    /**
+     * Shows the body parsed, right away if it is cached, otherwise once the renderer has
+     * parsed it off the main thread.
+     */
+    private void bindBody(final long start) {
+        if (mBodyRequest != null) {
+            mBodyRequest.cancel();
+            mBodyRequest = null;
         }
+        ArticleBodyRenderer renderer = ArticleBodyRenderer.getInstance();
+        String contentHash = mDetails.getContentHash();
+        List<CharSequence> paragraphs = renderer.getCached(mItemId, contentHash);
+        if (paragraphs != null) {
+            showBody(paragraphs, start);
+            return;
+        }
+        mBodyAdapter.setParagraphs(Collections.<CharSequence>emptyList());
+        mBodyRequest = renderer.render(mItemId, contentHash, mDetails.getBody(),
+                new ArticleBodyRenderer.Callback() {
+                    @Override
+                    public void onBodyRendered(long itemId, List<CharSequence> paragraphs) {
+                        mBodyRequest = null;
+                        showBody(paragraphs, start);
+                    }
+                });
+    }
 
+    /** Logs how long after {@code start} the first paragraphs were drawn. */
+    private void showBody(final List<CharSequence> paragraphs, final long start) {
+        mBodyAdapter.setParagraphs(paragraphs);
+        mBodyList.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        mBodyList.getViewTreeObserver().removeOnPreDrawListener(this);
+                        int length = 0;
+                        for (CharSequence paragraph : paragraphs) {
+                            length += paragraph.length();
+                        }
+                        Timber.d("ArticleDetailFragment: body of %d, %d chars in %d chunks,"
+                                        + " first paint after %d ms, %d laid out", mItemId,
+                                length, paragraphs.size(), SystemClock.elapsedRealtime() - start,
+                                mBodyList.getChildCount());
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Loads the photo into {@link #mTarget}, ahead of the pages next to this one if this is the
+     * page shown.
+     */
+    private void requestPhoto() {
+        int photoWidth = mPhotoView.getWidth() > 0
+                ? mPhotoView.getWidth() : getResources().getDisplayMetrics().widthPixels;
+        ImageLoaderHelper.getInstance(getActivity())
+                .loadPhoto(mDetails.getPhotoUrl(), photoWidth, mDetails.getAspectRatio())
+                .priority(getUserVisibleHint()
+                        ? ImageLoaderHelper.PRIORITY_VISIBLE : ImageLoaderHelper.PRIORITY_ADJACENT)
+                .into(mTarget);
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newInstanceForItemId(getActivity(), mItemId);
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        boolean wasVisible = getUserVisibleHint();
+        super.setUserVisibleHint(isVisibleToUser);
+        // Swiped to before its photo arrived, move it ahead of the neighbours'.
+        if (isVisibleToUser && !wasVisible && !mPhotoLoaded && mTarget != null
+                && mDetails != null && mRootView != null) {
+            requestPhoto();
+        }
+    }
+
+    private void onFirstPixel(String source) {
+        if (!mFirstPixelShown) {
+            mFirstPixelShown = true;
+            Timber.d("ArticleDetailFragment: first pixel of %d after %d ms, %s", mItemId,
+                    SystemClock.elapsedRealtime() - mCreatedAt, source);
+        }
+    }
+
+    private void releaseStandInThumbnail() {
+        if (mStandInThumbnail != null) {
+            ImageLoaderHelper.getInstance(getActivity()).releaseCachedThumbnail(mStandInThumbnail);
+            mStandInThumbnail = null;
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor cursor) {
-        if (!isAdded()) {
-            if (cursor != null) {
-                cursor.close();
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mTarget != null) {
+            ImageLoaderHelper.getInstance(getActivity()).getPicasso().cancelRequest(mTarget);
+            mTarget = null;
+        }
+        if (mBodyRequest != null) {
+            mBodyRequest.cancel();
+            mBodyRequest = null;
+        }
+        if (mDetailsRequest != null) {
+            mDetailsRequest.cancel();
+            mDetailsRequest = null;
+        }
+        if (mArticles != null) {
+            mArticles.removeListener(this);
+        }
+        // the view no longer draws it
+        releaseStandInThumbnail();
+    }
+
+    private void applyMutedColor(int color) {
+        mMutedColor = color;
+        mHeaderView.findViewById(R.id.meta_bar).setBackgroundColor(mMutedColor);
+        updateStatusBar();
+    }
+
+    /**
+     * Works out the photo's dark muted color on a worker thread, from a copy scaled down to
+     * {@link #PALETTE_BITMAP_AREA}, and stores it with the article so this only happens once.
+     */
+    private void generateMutedColor(Bitmap bitmap) {
+        final long itemId = mItemId;
+        final ArticleRepository articles = mArticles;
+        Palette.from(bitmap)
+                .maximumColorCount(PALETTE_MAX_COLORS)
+                .resizeBitmapArea(PALETTE_BITMAP_AREA)
+                .generate(new Palette.PaletteAsyncListener() {
+                    @Override
+                    public void onGenerated(Palette palette) {
+                        int color = palette != null
+                                ? palette.getDarkMutedColor(DEFAULT_MUTED_COLOR)
+                                : DEFAULT_MUTED_COLOR;
+                        articles.saveMutedColor(itemId, color);
+                        if (isAdded() && mRootView != null) {
+                            applyMutedColor(color);
+                        }
+                    }
+                });
+    }
+
+    /** The header, then the body a chunk of paragraphs per row. */
+    private class BodyAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        private static final int TYPE_HEADER = 0;
+        private static final int TYPE_PARAGRAPH = 1;
+
+        private List<CharSequence> mParagraphs = Collections.emptyList();
+        /**
+         * The only holder of {@link #mHeaderView}. A second one would try to add the view to
+         * the list while it is still in there.
+         */
+        private RecyclerView.ViewHolder mHeaderHolder;
+
+        void setParagraphs(List<CharSequence> paragraphs) {
+            mParagraphs = paragraphs;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            return position == 0 ? TYPE_HEADER : TYPE_PARAGRAPH;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            if (viewType == TYPE_HEADER) {
+                if (mHeaderHolder == null) {
+                    mHeaderHolder = new RecyclerView.ViewHolder(mHeaderView) {
+                    };
+                }
+                return mHeaderHolder;
             }
-            return;
+            return new ParagraphHolder(getActivity().getLayoutInflater()
+                    .inflate(R.layout.article_detail_paragraph, parent, false));
         }
 
-        mCursor = cursor;
-        if (mCursor != null && !mCursor.moveToFirst()) {
-            Log.e(TAG, "Error reading item detail cursor");
-            mCursor.close();
-            mCursor = null;
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            if (!(holder instanceof ParagraphHolder)) {
+                return;
+            }
+            TextView textView = ((ParagraphHolder) holder).textView;
+            textView.setTypeface(mBodyTypeface);
+            textView.setText(mParagraphs.get(position - 1));
+            // room for the share button below the last one
+            textView.setPadding(0, 0, 0, position == mParagraphs.size()
+                    ? getResources().getDimensionPixelSize(R.dimen.detail_body_end_padding) : 0);
         }
 
-        bindViews();
+        @Override
+        public int getItemCount() {
+            return 1 + mParagraphs.size();
+        }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> cursorLoader) {
-        mCursor = null;
-        bindViews();
+    private static class ParagraphHolder extends RecyclerView.ViewHolder {
+        final TextView textView;
+
+        ParagraphHolder(View view) {
+            super(view);
+            textView = (TextView) view.findViewById(R.id.article_body);
+        }
     }
 
     public int getUpButtonFloor() {
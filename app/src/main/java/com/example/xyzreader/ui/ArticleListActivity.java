@@ -1,34 +1,43 @@
 package com.example.xyzreader.ui;
 
-import android.app.LoaderManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.Loader;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.util.Pair;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.view.ViewCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
 import android.support.v7.widget.Toolbar;
-import android.text.format.DateUtils;
+import android.text.Html;
+import android.text.TextUtils;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.example.xyzreader.R;
 import com.example.xyzreader.data.ArticleLoader;
+import com.example.xyzreader.data.ArticlePage;
+import com.example.xyzreader.data.ArticleSearch;
 import com.example.xyzreader.data.ItemsContract;
+import com.example.xyzreader.data.PagedArticleList;
 import com.example.xyzreader.data.UpdaterService;
-import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Callback;
+
+import java.util.List;
 
 import butterknife.BindColor;
 import butterknife.ButterKnife;
@@ -42,13 +51,25 @@ import static com.example.xyzreader.R.id.photo;
  * activity presents a grid of items as cards.
  */
 public class ArticleListActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>, SwipeRefreshLayout.OnRefreshListener {
+        PagedArticleList.Callbacks, ArticleSearch.Callbacks, BylineFormatter.Listener,
+        SwipeRefreshLayout.OnRefreshListener {
 
     private static final String TAG = ArticleListActivity.class.getSimpleName();
+    /** Rebinds only the byline of a row, see {@link #onBylinesExpired()}. */
+    private static final Object PAYLOAD_BYLINE = new Object();
 
     private Toolbar mToolbar;
     private SwipeRefreshLayout mSwipeRefreshLayout;
     private RecyclerView mRecyclerView;
+    private PagedArticleList mArticles;
+    private Adapter mAdapter;
+    private ArticleSearch mSearch;
+    private SearchAdapter mSearchAdapter;
+    private ThumbnailPrefetcher mPrefetcher;
+    private BylineFormatter mBylines;
+    private int mColumnCount;
+    /** Margin on each side of a card. */
+    private int mCardMargin;
 
     @BindColor(R.color.colorPrimary)
     int colorPrimary;
@@ -74,8 +95,43 @@ public class ArticleListActivity extends AppCompatActivity implements
         mSwipeRefreshLayout.setOnRefreshListener(this);
 
         mRecyclerView = (RecyclerView) findViewById(R.id.recycler_view);
+        mColumnCount = getResources().getInteger(R.integer.list_column_count);
+        mCardMargin = getResources().getDimensionPixelSize(R.dimen.key_line_1);
+        mRecyclerView.setLayoutManager(
+                new StaggeredGridLayoutManager(mColumnCount, StaggeredGridLayoutManager.VERTICAL));
+
+        mBylines = BylineFormatter.getInstance(this);
+        mArticles = new PagedArticleList(this, this);
+        mAdapter = new Adapter(mArticles);
+        mRecyclerView.setAdapter(mAdapter);
+        mArticles.start();
+
+        mPrefetcher = new ThumbnailPrefetcher(ImageLoaderHelper.getInstance(this),
+                new ThumbnailPrefetcher.Source() {
+                    @Override
+                    public String getThumbnailUrl(int position) {
+                        ArticlePage page = mArticles.peekPage(position);
+                        return page != null ? page.getThumbUrl(position) : null;
+                    }
+
+                    @Override
+                    public float getAspectRatio(int position) {
+                        ArticlePage page = mArticles.peekPage(position);
+                        return page != null ? page.getAspectRatio(position) : 0;
+                    }
+
+                    @Override
+                    public int getThumbnailWidth() {
+                        return thumbnailWidth();
+                    }
+                },
+                getResources().getInteger(R.integer.thumbnail_prefetch_max_queued),
+                getResources().getInteger(R.integer.thumbnail_prefetch_max_distance));
+        mRecyclerView.addOnScrollListener(mPrefetcher);
 
-        getLoaderManager().initLoader(0, null, this);
+        mSearch = new ArticleSearch(this, this);
+        mSearchAdapter = new SearchAdapter();
+        setUpSearch();
 
         if (savedInstanceState == null) {
             refresh();
@@ -83,6 +139,58 @@ public class ArticleListActivity extends AppCompatActivity implements
     }
 
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPrefetcher.cancelAll();
+        mArticles.close();
+        mSearch.close();
+        mSearchAdapter.swapCursor(null);
+    }
+
+    /**
+     * While the search view is expanded the list shows the results for its text instead of
+     * all articles.
+     */
+    private void setUpSearch() {
+        mToolbar.inflateMenu(R.menu.article_list);
+        MenuItem searchItem = mToolbar.getMenu().findItem(R.id.search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mSearch.setQuery(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearch.setQuery(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        // search results aren't prefetched
+                        mRecyclerView.removeOnScrollListener(mPrefetcher);
+                        mPrefetcher.cancelAll();
+                        mRecyclerView.swapAdapter(mSearchAdapter, true);
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        mSearch.setQuery(null);
+                        mRecyclerView.swapAdapter(mAdapter, true);
+                        mRecyclerView.addOnScrollListener(mPrefetcher);
+                        return true;
+                    }
+                });
+    }
+
     private void refresh() {
         startService(new Intent(this, UpdaterService.class));
     }
@@ -92,12 +200,14 @@ public class ArticleListActivity extends AppCompatActivity implements
         super.onStart();
         registerReceiver(mRefreshingReceiver,
                 new IntentFilter(UpdaterService.BROADCAST_ACTION_STATE_CHANGE));
+        mBylines.addListener(this);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
         unregisterReceiver(mRefreshingReceiver);
+        mBylines.removeListener(this);
     }
 
     private boolean mIsRefreshing = false;
@@ -118,25 +228,19 @@ public class ArticleListActivity extends AppCompatActivity implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return ArticleLoader.newAllArticlesInstance(this);
+    public void onDataSetChanged() {
+        mAdapter.notifyDataSetChanged();
     }
 
-
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor cursor) {
-        final Adapter adapter = new Adapter(cursor);
-        adapter.setHasStableIds(true);
-        mRecyclerView.setAdapter(adapter);
-        int columnCount = getResources().getInteger(R.integer.list_column_count);
-        StaggeredGridLayoutManager sglm =
-                new StaggeredGridLayoutManager(columnCount, StaggeredGridLayoutManager.VERTICAL);
-        mRecyclerView.setLayoutManager(sglm);
+    public void onRowsChanged(DiffUtil.DiffResult changes) {
+        // rebinds only the rows that changed, and keeps the scroll position
+        changes.dispatchUpdatesTo(mAdapter);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mRecyclerView.setAdapter(null);
+    public void onRangeLoaded(int start, int count) {
+        mAdapter.notifyItemRangeChanged(start, count);
     }
 
     @Override
@@ -144,19 +248,131 @@ public class ArticleListActivity extends AppCompatActivity implements
         refresh();
     }
 
+    @Override
+    public void onBylinesExpired() {
+        // only rows on screen are rebound, the rest format theirs when they come back
+        mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount(), PAYLOAD_BYLINE);
+        mSearchAdapter.notifyItemRangeChanged(0, mSearchAdapter.getItemCount(), PAYLOAD_BYLINE);
+    }
+
+    @Override
+    public void onSearchResults(String query, Cursor results) {
+        mSearchAdapter.swapCursor(results);
+    }
+
+    /**
+     * @param sharedElements whether the row's position is also the article's position in the
+     *                       detail pager, which the shared element names are made from
+     */
+    private void openArticle(ViewHolder vh, long itemId, boolean sharedElements) {
+        Uri uri = ItemsContract.Items.buildItemUri(itemId);
+
+        Intent intent = new Intent(Intent.ACTION_VIEW, uri);
+
+        if (sharedElements && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Get the clicked position
+            int position = vh.getAdapterPosition();
+
+            // Make the name of sharedTransitionElements unique
+            String photoTransitionNameWithPosition =
+                    getString(R.string.photo_transition_name) + position;
+            String titleTransitionNameWithPosition =
+                    getString(R.string.article_title_transition_name) + position;
+
+            ViewCompat.setTransitionName(vh.photoView, photoTransitionNameWithPosition);
+            ViewCompat.setTransitionName(vh.titleView, titleTransitionNameWithPosition);
+
+            // pair of view and unique transition name
+            Pair photoTransition = new Pair<View, String>(vh.photoView,
+                    photoTransitionNameWithPosition);
+
+            Pair titleTransition = new Pair<View, String>(vh.titleView,
+                    titleTransitionNameWithPosition);
+
+            ActivityOptionsCompat optionsCompat =
+                    ActivityOptionsCompat.makeSceneTransitionAnimation(
+                            ArticleListActivity.this, photoTransition, titleTransition);
+
+            ActivityCompat.startActivity(
+                    ArticleListActivity.this, intent, optionsCompat.toBundle());
+        } else {
+            startActivity(intent);
+        }
+    }
+
+    /**
+     * Loads a row's thumbnail, letting go of the one it showed before so that one can be
+     * reused.
+     */
+    private void bindThumbnail(final ViewHolder holder, String url, float aspectRatio) {
+        releaseThumbnail(holder);
+        holder.photoView.setAspectRatio(aspectRatio);
+        final ImageLoaderHelper imageLoader = ImageLoaderHelper.getInstance(this);
+        imageLoader.loadThumbnail(url, thumbnailWidth(holder), aspectRatio)
+                .priority(ImageLoaderHelper.PRIORITY_VISIBLE)
+                .into(holder.photoView, new Callback() {
+                    @Override
+                    public void onSuccess() {
+                        holder.thumbnail = imageLoader.retainThumbnail(holder.photoView);
+                    }
+
+                    @Override
+                    public void onError() {
+                    }
+                });
+    }
+
+    /** Shows the text under the byline, or nothing, without leaving an empty line. */
+    private static void bindExcerpt(ViewHolder holder, CharSequence excerpt) {
+        holder.excerptView.setText(excerpt);
+        holder.excerptView.setVisibility(TextUtils.isEmpty(excerpt) ? View.GONE : View.VISIBLE);
+    }
+
+    private void releaseThumbnail(ViewHolder holder) {
+        ImageLoaderHelper.getInstance(this).releaseThumbnail(holder.photoView, holder.thumbnail);
+        holder.thumbnail = null;
+    }
+
+    /**
+     * Width a thumbnail is shown at. Rows that have been laid out before know it, for the
+     * first ones it is worked out from the list width and the column count.
+     */
+    private int thumbnailWidth(ViewHolder holder) {
+        int width = holder.photoView.getWidth();
+        return width > 0 ? width : thumbnailWidth();
+    }
+
+    /**
+     * Width of the thumbnails on screen, so prefetched ones are decoded to the same size and
+     * cached under the same key as the rows will ask for.
+     */
+    private int thumbnailWidth() {
+        for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder =
+                    mRecyclerView.getChildViewHolder(mRecyclerView.getChildAt(i));
+            if (holder instanceof ViewHolder && ((ViewHolder) holder).photoView.getWidth() > 0) {
+                return ((ViewHolder) holder).photoView.getWidth();
+            }
+        }
+        int listWidth = mRecyclerView.getWidth() > 0
+                ? mRecyclerView.getWidth() : getResources().getDisplayMetrics().widthPixels;
+        return (listWidth - mRecyclerView.getPaddingLeft() - mRecyclerView.getPaddingRight())
+                / mColumnCount - 2 * mCardMargin;
+    }
+
 
     /****************** View Holder ***********************/
     private class Adapter extends RecyclerView.Adapter<ViewHolder> {
-        private Cursor mCursor;
+        private final PagedArticleList mArticles;
 
-        public Adapter(Cursor cursor) {
-            mCursor = cursor;
+        public Adapter(PagedArticleList articles) {
+            mArticles = articles;
         }
 
         @Override
         public long getItemId(int position) {
-            mCursor.moveToPosition(position);
-            return mCursor.getLong(ArticleLoader.Query._ID);
+            ArticlePage page = mArticles.peekPage(position);
+            return page != null ? page.getId(position) : RecyclerView.NO_ID;
         }
 
         @Override
@@ -167,42 +383,88 @@ public class ArticleListActivity extends AppCompatActivity implements
             view.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
+                    long itemId = getItemId(vh.getAdapterPosition());
+                    if (itemId == RecyclerView.NO_ID) {
+                        // not loaded yet
+                        return;
+                    }
+                    openArticle(vh, itemId, true);
+                }
+            });
+            return vh;
+        }
 
-                    Uri uri = ItemsContract.Items.buildItemUri(
-                            getItemId(vh.getAdapterPosition()));
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            ArticlePage page = mArticles.getPage(position);
+            if (page == null) {
+                // Page still loading, onRangeLoaded() rebinds this row.
+                releaseThumbnail(holder);
+                holder.titleView.setText(null);
+                holder.subtitleView.setText(null);
+                bindExcerpt(holder, null);
+                return;
+            }
 
-                    Intent intent = new Intent(Intent.ACTION_VIEW, uri);
+            holder.titleView.setText(page.getTitle(position));
+            bindByline(holder, page, position);
+            bindExcerpt(holder, page.getExcerpt(position));
+            bindThumbnail(holder, page.getThumbUrl(position), page.getAspectRatio(position));
+        }
 
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                        // Get the clicked position
-                        int position = vh.getAdapterPosition();
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+            ArticlePage page = mArticles.getPage(position);
+            if (page != null && payloads.contains(PAYLOAD_BYLINE)) {
+                bindByline(holder, page, position);
+            } else {
+                onBindViewHolder(holder, position);
+            }
+        }
 
-                        // Make the name of sharedTransitionElements unique
-                        String photoTransitionNameWithPosition =
-                                getString(R.string.photo_transition_name) + position;
-                        String titleTransitionNameWithPosition =
-                                getString(R.string.article_title_transition_name) + position;
+        private void bindByline(ViewHolder holder, ArticlePage page, int position) {
+            holder.subtitleView.setText(mBylines.format(page.getId(position),
+                    page.getPublishedDate(position), page.getAuthor(position)));
+        }
 
-                        ViewCompat.setTransitionName(vh.photoView, photoTransitionNameWithPosition);
-                        ViewCompat.setTransitionName(vh.titleView, titleTransitionNameWithPosition);
+        @Override
+        public void onViewRecycled(ViewHolder holder) {
+            releaseThumbnail(holder);
+        }
 
-                        // pair of view and unique transition name
-                        Pair photoTransition = new Pair<View, String>(vh.photoView,
-                                photoTransitionNameWithPosition);
+        @Override
+        public int getItemCount() {
+            return mArticles.getCount();
+        }
+    }
 
-                        Pair titleTransition = new Pair<View, String>(vh.titleView,
-                                titleTransitionNameWithPosition);
+    /** Search results, best match first, with the matched words in bold in the snippet. */
+    private class SearchAdapter extends RecyclerView.Adapter<ViewHolder> {
+        private Cursor mCursor;
 
-                        ActivityOptionsCompat optionsCompat =
-                                ActivityOptionsCompat.makeSceneTransitionAnimation(
-                                        ArticleListActivity.this, photoTransition, titleTransition);
+        /** Replaces the results, closing the old cursor. */
+        public void swapCursor(Cursor cursor) {
+            if (mCursor != null) {
+                mCursor.close();
+            }
+            mCursor = cursor;
+            notifyDataSetChanged();
+        }
 
+        @Override
+        public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View view = getLayoutInflater().inflate(R.layout.list_item_article, parent, false);
+            final ViewHolder vh = new ViewHolder(view);
 
-                        ActivityCompat.startActivity(
-                                ArticleListActivity.this, intent, optionsCompat.toBundle());
-                    } else {
-                        startActivity(intent);
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int position = vh.getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION
+                            || !mCursor.moveToPosition(position)) {
+                        return;
                     }
+                    openArticle(vh, mCursor.getLong(ArticleLoader.SearchQuery._ID), false);
                 }
             });
             return vh;
@@ -210,28 +472,43 @@ public class ArticleListActivity extends AppCompatActivity implements
 
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-
             mCursor.moveToPosition(position);
-            holder.titleView.setText(mCursor.getString(ArticleLoader.Query.TITLE));
 
-            holder.subtitleView.setText(
-                    DateUtils.getRelativeTimeSpanString(
-                            mCursor.getLong(ArticleLoader.Query.PUBLISHED_DATE),
-                            System.currentTimeMillis(), DateUtils.HOUR_IN_MILLIS,
-                            DateUtils.FORMAT_ABBREV_ALL).toString()
-                            + " by "
-                            + mCursor.getString(ArticleLoader.Query.AUTHOR));
+            holder.titleView.setText(mCursor.getString(ArticleLoader.SearchQuery.TITLE));
+            bindByline(holder);
+            // the matched words in bold, where the list shows the start of the body
+            bindExcerpt(holder,
+                    Html.fromHtml(mCursor.getString(ArticleLoader.SearchQuery.SEARCH_SNIPPET)));
+            bindThumbnail(holder, mCursor.getString(ArticleLoader.SearchQuery.THUMB_URL),
+                    mCursor.getFloat(ArticleLoader.SearchQuery.ASPECT_RATIO));
+        }
 
-            Picasso.with(ArticleListActivity.this)
-                    .load(mCursor.getString(ArticleLoader.Query.THUMB_URL))
-                    .into(holder.photoView);
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+            if (payloads.contains(PAYLOAD_BYLINE)) {
+                mCursor.moveToPosition(position);
+                bindByline(holder);
+            } else {
+                onBindViewHolder(holder, position);
+            }
+        }
 
-            holder.photoView.setAspectRatio(mCursor.getFloat(ArticleLoader.Query.ASPECT_RATIO));
+        /** Byline of the row the cursor is at. */
+        private void bindByline(ViewHolder holder) {
+            holder.subtitleView.setText(mBylines.format(
+                    mCursor.getLong(ArticleLoader.SearchQuery._ID),
+                    mCursor.getLong(ArticleLoader.SearchQuery.PUBLISHED_DATE),
+                    mCursor.getString(ArticleLoader.SearchQuery.AUTHOR)));
+        }
+
+        @Override
+        public void onViewRecycled(ViewHolder holder) {
+            releaseThumbnail(holder);
         }
 
         @Override
         public int getItemCount() {
-            return mCursor.getCount();
+            return mCursor != null ? mCursor.getCount() : 0;
         }
     }
 
@@ -239,12 +516,16 @@ public class ArticleListActivity extends AppCompatActivity implements
         public DynamicHeightImageView photoView;
         public TextView titleView;
         public TextView subtitleView;
+        public TextView excerptView;
+        /** Bitmap shown in {@link #photoView}, see {@link ImageLoaderHelper#retainThumbnail}. */
+        Bitmap thumbnail;
 
         public ViewHolder(View view) {
             super(view);
             photoView = (DynamicHeightImageView) view.findViewById(photo);
             titleView = (TextView) view.findViewById(R.id.article_title);
             subtitleView = (TextView) view.findViewById(R.id.article_byline);
+            excerptView = (TextView) view.findViewById(R.id.article_excerpt);
         }
     }
 }
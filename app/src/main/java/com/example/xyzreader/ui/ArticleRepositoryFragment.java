@@ -0,0 +1,54 @@
+package com.example.xyzreader.ui;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.os.Bundle;
+
+import com.example.xyzreader.data.ArticleRepository;
+
+/**
+ * Holds the {@link ArticleRepository} of an activity across configuration changes, so a
+ * rotation neither reads the articles again nor drops the details already read. Has no view.
+ */
+public class ArticleRepositoryFragment extends Fragment {
+    private static final String TAG = "ArticleRepositoryFragment";
+
+    private ArticleRepository mArticles;
+
+    /**
+     * The repository of {@code activity}, started when first asked for. Call from
+     * {@link Activity#onCreate} after the super call, or later.
+     */
+    public static ArticleRepository get(Activity activity) {
+        final FragmentManager fm = activity.getFragmentManager();
+        ArticleRepositoryFragment fragment =
+                (ArticleRepositoryFragment) fm.findFragmentByTag(TAG);
+        if (fragment == null) {
+            fragment = new ArticleRepositoryFragment();
+            fm.beginTransaction().add(fragment, TAG).commit();
+            // runs onCreate, which starts the repository
+            fm.executePendingTransactions();
+        }
+        return fragment.mArticles;
+    }
+
+    /** Mandatory empty constructor, also used when the activity is restored. */
+    public ArticleRepositoryFragment() {
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // Only called once, a retained fragment isn't created again with its activity.
+        setRetainInstance(true);
+        mArticles = new ArticleRepository(getActivity());
+        mArticles.start();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mArticles.close();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.xyzreader.ui;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+import com.squareup.picasso.Cache;
+
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Picasso's memory cache, bounded by the bytes of the bitmaps it holds rather than their
+ * number. Thumbnails and full photos have separate budgets, each a fraction of the app's heap
+ * limit, so a few large photos can't push every list thumbnail out and the other way round.
+ * <p>
+ * Which budget a bitmap counts against is decided by the key prefix that
+ * {@link ImageLoaderHelper} puts into the stable key of each request. Thumbnails handed out and
+ * leaving the cache are reported to {@link BitmapReferences}, which pools them once nothing
+ * shows them or is about to.
+ */
+public class BitmapMemoryCache implements Cache {
+    static final String THUMBNAIL_KEY_PREFIX = "thumb|";
+    static final String PHOTO_KEY_PREFIX = "photo|";
+
+    /** Share of {@link ActivityManager#getMemoryClass()} for list thumbnails. */
+    private static final float THUMBNAIL_HEAP_FRACTION = 0.08f;
+    /** Share of {@link ActivityManager#getMemoryClass()} for full photos. */
+    private static final float PHOTO_HEAP_FRACTION = 0.12f;
+
+    private final Pool mThumbnails;
+    private final Pool mPhotos;
+
+    BitmapMemoryCache(Context context, BitmapReferences thumbnailReferences) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = am.getMemoryClass() * 1024L * 1024L;
+        mThumbnails = new Pool((int) (heapBytes * THUMBNAIL_HEAP_FRACTION), thumbnailReferences);
+        mPhotos = new Pool((int) (heapBytes * PHOTO_HEAP_FRACTION), null);
+        Timber.d("BitmapMemoryCache: %d KiB thumbnails, %d KiB photos",
+                mThumbnails.maxSize() / 1024, mPhotos.maxSize() / 1024);
+    }
+
+    private Pool poolFor(String key) {
+        return key.startsWith(THUMBNAIL_KEY_PREFIX) ? mThumbnails : mPhotos;
+    }
+
+    @Override
+    public Bitmap get(String key) {
+        final Pool pool = poolFor(key);
+        if (pool.mReferences == null) {
+            return pool.get(key);
+        }
+        // Found and handed out in one step, an eviction in between would pool it.
+        synchronized (pool.mReferences) {
+            final Bitmap bitmap = pool.get(key);
+            if (bitmap != null) {
+                pool.mReferences.onHandedOut(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    @Override
+    public void set(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null) {
+            throw new NullPointerException("key == null || bitmap == null");
+        }
+        poolFor(key).put(key, bitmap);
+    }
+
+    @Override
+    public int size() {
+        return mThumbnails.size() + mPhotos.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mThumbnails.maxSize() + mPhotos.maxSize();
+    }
+
+    @Override
+    public void clear() {
+        mThumbnails.evictAll();
+        mPhotos.evictAll();
+    }
+
+    @Override
+    public void clearKeyUri(String uri) {
+        mThumbnails.removeUri(uri);
+        mPhotos.removeUri(uri);
+    }
+
+    /** Gives memory back as the system asks for it, see {@link ComponentCallbacks2}. */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // The photo of the open article is cheap to decode again from the disk cache,
+            // the list thumbnails are kept for returning to the list.
+            mPhotos.evictAll();
+            mThumbnails.trimToSize(mThumbnails.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Any cached thumbnail of {@code url}, the widest if rows of different sizes loaded it,
+     * or null.
+     */
+    Bitmap findThumbnail(String url) {
+        String prefix = THUMBNAIL_KEY_PREFIX + url;
+        Bitmap widest = null;
+        for (Map.Entry<String, Bitmap> entry : mThumbnails.snapshot().entrySet()) {
+            String key = entry.getKey();
+            // followed by the size or Picasso's separator, not by more of a longer url
+            if (key.length() > prefix.length() && key.startsWith(prefix)
+                    && (key.charAt(prefix.length()) == '#' || key.charAt(prefix.length()) == '\n')
+                    && (widest == null || entry.getValue().getWidth() > widest.getWidth())) {
+                widest = entry.getValue();
+            }
+        }
+        return widest;
+    }
+
+    public Pool getThumbnails() {
+        return mThumbnails;
+    }
+
+    public Pool getPhotos() {
+        return mPhotos;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapMemoryCache[thumbnails=" + mThumbnails + ", photos=" + mPhotos + "]";
+    }
+
+    /**
+     * One budget. Hit, miss and eviction counts are kept by {@link LruCache}.
+     */
+    public static class Pool extends LruCache<String, Bitmap> {
+        private final BitmapReferences mReferences;
+
+        Pool(int maxBytes, BitmapReferences references) {
+            super(Math.max(1, maxBytes));
+            mReferences = references;
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                Bitmap newValue) {
+            if (mReferences != null && oldValue != newValue) {
+                mReferences.onRemovedFromCache(oldValue);
+            }
+        }
+
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            // a reused bitmap may own a larger allocation than its current size needs
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+        }
+
+        /** Removes the entries of {@code uri} in every size and transformation. */
+        void removeUri(String uri) {
+            for (String key : snapshot().keySet()) {
+                // the key starts with the stable key, which is the uri behind our prefix
+                int start = key.startsWith(THUMBNAIL_KEY_PREFIX) ? THUMBNAIL_KEY_PREFIX.length()
+                        : key.startsWith(PHOTO_KEY_PREFIX) ? PHOTO_KEY_PREFIX.length() : 0;
+                if (key.startsWith(uri, start)) {
+                    remove(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.xyzreader.ui;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmaps no longer shown or cached, kept for {@link android.graphics.BitmapFactory.Options#inBitmap}
+ * so decoding a thumbnail doesn't allocate a new one. Bucketed by allocation size; a request
+ * is served by the smallest bitmap at least as large, within {@link #MAX_SIZE_MULTIPLE}.
+ * <p>
+ * Reuse across sizes needs KitKat. Before that nothing is pooled, see {@link #isSupported()}.
+ */
+public class BitmapPool {
+    /** Don't hand out a bitmap more than this many times the bytes asked for. */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final int mMaxSize;
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets =
+            new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    /** Every pooled bitmap, least recently put first. */
+    private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+    private int mSize;
+
+    private int mHits;
+    private int mMisses;
+    private int mPuts;
+    private int mEvictions;
+
+    /** @param maxSize bytes of pooled bitmaps to keep at most */
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Takes a bitmap with room for at least {@code byteCount} bytes out of the pool, or
+     * returns null.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap get(int byteCount) {
+        if (!isSupported()) {
+            return null;
+        }
+        final Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.ceilingEntry(byteCount);
+        if (entry == null || entry.getKey() > (long) byteCount * MAX_SIZE_MULTIPLE) {
+            mMisses++;
+            return null;
+        }
+        final Bitmap bitmap = entry.getValue().removeLast();
+        if (entry.getValue().isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mOrder.remove(bitmap);
+        mSize -= entry.getKey();
+        mHits++;
+        return bitmap;
+    }
+
+    /**
+     * Takes a bitmap out of the pool and reconfigures it to exactly the given dimensions, or
+     * returns null. Its pixels are undefined.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        final Bitmap bitmap = get(width * height * bytesPerPixel(config));
+        if (bitmap != null) {
+            bitmap.reconfigure(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Hands a bitmap to the pool. The caller must not use it afterwards, nor may anything
+     * still draw it.
+     *
+     * @return false if the bitmap can't be reused and was left alone
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized boolean put(Bitmap bitmap) {
+        if (!isSupported() || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        final int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSize / 2) {
+            return false;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mOrder.addLast(bitmap);
+        mSize += size;
+        mPuts++;
+        trimToSize(mMaxSize);
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized void trimToSize(int maxSize) {
+        while (mSize > maxSize && !mOrder.isEmpty()) {
+            final Bitmap bitmap = mOrder.removeFirst();
+            final int size = bitmap.getAllocationByteCount();
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(size);
+            }
+            mSize -= size;
+            mEvictions++;
+            bitmap.recycle();
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int hitCount() {
+        return mHits;
+    }
+
+    public synchronized int missCount() {
+        return mMisses;
+    }
+
+    public synchronized int putCount() {
+        return mPuts;
+    }
+
+    public synchronized int evictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final int requests = mHits + mMisses;
+        return "BitmapPool[size=" + mSize + ",maxSize=" + mMaxSize + ",bitmaps=" + mOrder.size()
+                + ",hits=" + mHits + ",misses=" + mMisses
+                + ",hitRate=" + (requests != 0 ? 100 * mHits / requests : 0) + "%"
+                + ",puts=" + mPuts + ",evictions=" + mEvictions + "]";
+    }
+}
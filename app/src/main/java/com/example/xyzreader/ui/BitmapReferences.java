@@ -0,0 +1,93 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Decides when a thumbnail can go back to the {@link BitmapPool}: once the memory cache has
+ * dropped it, no list row shows it any more and no request is about to deliver it.
+ * <p>
+ * Only bitmaps that have been shown are pooled, one that was never shown may be a fresh
+ * decode still on its way to a view. Later deliveries all start with a cache hit, which
+ * {@link BitmapMemoryCache} reports with {@link #onHandedOut} under this object's lock, so an
+ * eviction can't slip in between. A hit counts until a view attaches the bitmap. A request
+ * cancelled on the way, or a prefetch, never attaches; such a bitmap is left to the garbage
+ * collector rather than risk pooling one that is shown.
+ */
+class BitmapReferences {
+    private final BitmapPool mPool;
+
+    /** Number of views showing each bitmap, only those with at least one. */
+    private final IdentityHashMap<Bitmap, Integer> mShownBy =
+            new IdentityHashMap<Bitmap, Integer>();
+    /** Bitmaps that have been shown at some point. */
+    private final WeakHashMap<Bitmap, Boolean> mShown = new WeakHashMap<Bitmap, Boolean>();
+    /** Cache hits not yet attached to a view, by bitmap. */
+    private final WeakHashMap<Bitmap, Integer> mHandedOut = new WeakHashMap<Bitmap, Integer>();
+    /**
+     * Bitmaps evicted from the cache while shown or handed out, pooled once the last view lets
+     * go and no hit is outstanding.
+     */
+    private final Set<Bitmap> mEvicted =
+            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+
+    BitmapReferences(BitmapPool pool) {
+        mPool = pool;
+    }
+
+    /** The memory cache returned {@code bitmap} for a request, which may deliver it. */
+    synchronized void onHandedOut(Bitmap bitmap) {
+        final Integer count = mHandedOut.get(bitmap);
+        mHandedOut.put(bitmap, count != null ? count + 1 : 1);
+    }
+
+    /** A view started showing {@code bitmap}. */
+    synchronized void attach(Bitmap bitmap) {
+        final Integer count = mShownBy.get(bitmap);
+        mShownBy.put(bitmap, count != null ? count + 1 : 1);
+        mShown.put(bitmap, Boolean.TRUE);
+
+        // the delivery of a hit, if there is one outstanding
+        final Integer handedOut = mHandedOut.get(bitmap);
+        if (handedOut != null && handedOut > 1) {
+            mHandedOut.put(bitmap, handedOut - 1);
+        } else if (handedOut != null) {
+            mHandedOut.remove(bitmap);
+        }
+    }
+
+    /** A view stopped showing {@code bitmap} and no longer draws it. */
+    synchronized void detach(Bitmap bitmap) {
+        final Integer count = mShownBy.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mShownBy.put(bitmap, count - 1);
+            return;
+        }
+        mShownBy.remove(bitmap);
+        if (!mHandedOut.containsKey(bitmap) && mEvicted.remove(bitmap)) {
+            recycle(bitmap);
+        }
+    }
+
+    /** The memory cache no longer holds {@code bitmap}. */
+    synchronized void onRemovedFromCache(Bitmap bitmap) {
+        if (mShownBy.containsKey(bitmap) || mHandedOut.containsKey(bitmap)) {
+            mEvicted.add(bitmap);
+        } else if (mShown.containsKey(bitmap)) {
+            recycle(bitmap);
+        }
+    }
+
+    private void recycle(Bitmap bitmap) {
+        // decoded into again, it starts over as never shown
+        mShown.remove(bitmap);
+        mPool.put(bitmap);
+    }
+}
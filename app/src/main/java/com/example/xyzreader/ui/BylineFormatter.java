@@ -0,0 +1,202 @@
+package com.example.xyzreader.ui;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.v4.util.LruCache;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.text.style.ForegroundColorSpan;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Bylines, "5 hours ago by Author", cached per article for as long as the relative time in
+ * them reads the same: until the next hour for articles less than a day old, until midnight
+ * for those less than a week old, and until the year changes for older ones, which show the
+ * date.
+ * <p>
+ * Time moves on in steps of the system's minute tick, {@link Intent#ACTION_TIME_TICK}, with one
+ * receiver for the whole app, registered while someone listens. Listeners hear when a byline
+ * they may show has gone out of date. With nobody listening there are no ticks, and bylines
+ * are formatted against the clock itself. Must be used from the main thread.
+ */
+public class BylineFormatter {
+    private static final int MAX_CACHED = 512;
+
+    private static BylineFormatter sInstance;
+
+    public static BylineFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BylineFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public interface Listener {
+        /** Some bylines read differently now, those on screen need formatting again. */
+        void onBylinesExpired();
+    }
+
+    private final Context mContext;
+    private final LruCache<Long, Entry> mCache = new LruCache<Long, Entry>(MAX_CACHED);
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+    /**
+     * Time of the last tick; bylines are formatted against this rather than the clock while
+     * anyone listens.
+     */
+    private long mNow = System.currentTimeMillis();
+    /** Soonest any cached byline goes out of date. */
+    private long mNextExpiry = Long.MAX_VALUE;
+
+    private final BroadcastReceiver mTickReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_TIME_TICK.equals(intent.getAction())) {
+                tick();
+            } else {
+                // clock or time zone changed, every cached byline may be off
+                mCache.evictAll();
+                mNextExpiry = Long.MAX_VALUE;
+                mNow = System.currentTimeMillis();
+                notifyExpired();
+            }
+        }
+    };
+
+    private BylineFormatter(Context context) {
+        mContext = context;
+    }
+
+    public void addListener(Listener listener) {
+        if (mListeners.isEmpty()) {
+            IntentFilter filter = new IntentFilter(Intent.ACTION_TIME_TICK);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            mContext.registerReceiver(mTickReceiver, filter);
+            // no ticks arrived while nobody listened
+            tick();
+        }
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        if (mListeners.remove(listener) && mListeners.isEmpty()) {
+            mContext.unregisterReceiver(mTickReceiver);
+        }
+    }
+
+    private void tick() {
+        mNow = System.currentTimeMillis();
+        if (mNow >= mNextExpiry) {
+            // Entries are checked when they are asked for, this only tells what is shown to
+            // ask again.
+            mNextExpiry = Long.MAX_VALUE;
+            notifyExpired();
+        }
+    }
+
+    private void notifyExpired() {
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onBylinesExpired();
+        }
+    }
+
+    /** "5 hours ago by Author", as the list shows it. */
+    public String format(long itemId, long publishedDate, String author) {
+        return entry(itemId, publishedDate, author).byline;
+    }
+
+    /**
+     * The same with the author in {@code authorColor}, as the article page shows it.
+     */
+    public Spanned formatWithAuthorColor(long itemId, long publishedDate, String author,
+            int authorColor) {
+        Entry entry = entry(itemId, publishedDate, author);
+        SpannableStringBuilder byline = new SpannableStringBuilder(entry.relativeTime)
+                .append(" by ");
+        int start = byline.length();
+        byline.append(author != null ? author : "");
+        byline.setSpan(new ForegroundColorSpan(authorColor), start, byline.length(),
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return byline;
+    }
+
+    private Entry entry(long itemId, long publishedDate, String author) {
+        if (mListeners.isEmpty()) {
+            mNow = System.currentTimeMillis();
+        }
+        Entry entry = mCache.get(itemId);
+        if (entry == null || entry.validUntil <= mNow || entry.publishedDate != publishedDate
+                || !TextUtils.equals(entry.author, author)) {
+            String relativeTime = DateUtils.getRelativeTimeSpanString(publishedDate, mNow,
+                    DateUtils.HOUR_IN_MILLIS, DateUtils.FORMAT_ABBREV_ALL).toString();
+            entry = new Entry(publishedDate, author, relativeTime, relativeTime + " by " + author,
+                    validUntil(publishedDate, mNow));
+            mCache.put(itemId, entry);
+        }
+        // tracked for what was asked for since the last expiry, which is what is shown
+        mNextExpiry = Math.min(mNextExpiry, entry.validUntil);
+        return entry;
+    }
+
+    /**
+     * When the relative time of {@code publishedDate} formatted at {@code now} next reads
+     * differently, following the steps of {@link DateUtils#getRelativeTimeSpanString}.
+     */
+    private static long validUntil(long publishedDate, long now) {
+        long age = now - publishedDate;
+        if (age < 0) {
+            // "in 2 hours", not worth working out
+            return now + DateUtils.MINUTE_IN_MILLIS;
+        }
+        if (age < DateUtils.DAY_IN_MILLIS) {
+            // whole hours
+            return publishedDate
+                    + (age / DateUtils.HOUR_IN_MILLIS + 1) * DateUtils.HOUR_IN_MILLIS;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (age < DateUtils.WEEK_IN_MILLIS) {
+            // calendar days, until the date is shown instead
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            return Math.min(calendar.getTimeInMillis(),
+                    publishedDate + DateUtils.WEEK_IN_MILLIS);
+        }
+        // The date, with the year once it is not this year's.
+        int year = calendar.get(Calendar.YEAR);
+        calendar.setTimeInMillis(publishedDate);
+        if (calendar.get(Calendar.YEAR) != year) {
+            return Long.MAX_VALUE;
+        }
+        calendar.set(year + 1, Calendar.JANUARY, 1, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static class Entry {
+        final long publishedDate;
+        final String author;
+        final String relativeTime;
+        final String byline;
+        final long validUntil;
+
+        Entry(long publishedDate, String author, String relativeTime, String byline,
+                long validUntil) {
+            this.publishedDate = publishedDate;
+            this.author = author;
+            this.relativeTime = relativeTime;
+            this.byline = byline;
+            this.validUntil = validUntil;
+        }
+    }
+}
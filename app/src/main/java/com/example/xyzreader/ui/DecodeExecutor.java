@@ -0,0 +1,114 @@
+package com.example.xyzreader.ui;
+
+import android.os.Process;
+
+import com.squareup.picasso.Picasso;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs image decodes on one background thread per CPU core, highest {@link Picasso.Priority}
+ * first and in order of submission within a priority.
+ * <p>
+ * Picasso's own threads fetch the bytes; their number follows the network type and has
+ * nothing to do with how many decodes the CPU can run at once.
+ */
+class DecodeExecutor extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    DecodeExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    DecodeExecutor(int threads) {
+        super(Math.max(1, threads), Math.max(1, threads), KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new DecodeThreadFactory());
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code decode} at {@code priority} and waits for it.
+     */
+    <T> T decode(Picasso.Priority priority, Callable<T> decode) throws IOException {
+        final DecodeTask<T> task = new DecodeTask<T>(decode, priority,
+                mSequence.getAndIncrement());
+        // not submit(), which would wrap the task into something not comparable
+        execute(task);
+        try {
+            return await(task);
+        } catch (InterruptedIOException e) {
+            // nobody waits for it any more, drop it unless it has started
+            task.cancel(false);
+            throw e;
+        }
+    }
+
+    /** Waits for {@code future}, rethrowing what it failed with. */
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static class DecodeTask<T> extends FutureTask<T>
+            implements Comparable<DecodeTask<?>> {
+        private final Picasso.Priority mPriority;
+        private final long mSequence;
+
+        DecodeTask(Callable<T> callable, Picasso.Priority priority, long sequence) {
+            super(callable);
+            mPriority = priority != null ? priority : Picasso.Priority.NORMAL;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(DecodeTask<?> other) {
+            // higher priority first, then first come first served
+            if (mPriority != other.mPriority) {
+                return other.mPriority.ordinal() - mPriority.ordinal();
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ImageDecode-" + mCount.incrementAndGet());
+        }
+    }
+}
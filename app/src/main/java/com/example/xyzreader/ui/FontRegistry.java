@@ -0,0 +1,70 @@
+package com.example.xyzreader.ui;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+
+import timber.log.Timber;
+
+/**
+ * The fonts bundled in the assets, each loaded once for the whole app. Loading one parses the
+ * font file and makes a native typeface, far too slow to do for every view that shows it.
+ * <p>
+ * {@link #preloadWhenIdle} loads the Rosario family once the main thread has nothing else to
+ * do after startup, so the first article page finds it ready.
+ */
+public final class FontRegistry {
+    public static final String ROSARIO_REGULAR = "Rosario-Regular.ttf";
+
+    /** The Rosario faces in the assets. */
+    private static final String[] ROSARIO_FAMILY = {ROSARIO_REGULAR};
+
+    /** By asset path. A font that failed to load maps to null. */
+    private static final HashMap<String, Typeface> sTypefaces = new HashMap<String, Typeface>();
+
+    private FontRegistry() {
+    }
+
+    /**
+     * The typeface of the font at {@code assetPath}, shared with everything else showing it.
+     * Null if it can't be loaded, which views take as the default typeface.
+     */
+    public static Typeface get(Context context, String assetPath) {
+        synchronized (sTypefaces) {
+            if (sTypefaces.containsKey(assetPath)) {
+                return sTypefaces.get(assetPath);
+            }
+            final long start = SystemClock.elapsedRealtime();
+            Typeface typeface = null;
+            try {
+                typeface = Typeface.createFromAsset(
+                        context.getApplicationContext().getAssets(), assetPath);
+            } catch (RuntimeException e) {
+                Timber.w(e, "FontRegistry: can't load %s", assetPath);
+            }
+            sTypefaces.put(assetPath, typeface);
+            Timber.d("FontRegistry: %s loaded in %d ms", assetPath,
+                    SystemClock.elapsedRealtime() - start);
+            return typeface;
+        }
+    }
+
+    /** Loads the Rosario family the next time the main thread is idle. */
+    public static void preloadWhenIdle(final Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                for (String assetPath : ROSARIO_FAMILY) {
+                    get(applicationContext, assetPath);
+                }
+                // once
+                return false;
+            }
+        });
+    }
+}
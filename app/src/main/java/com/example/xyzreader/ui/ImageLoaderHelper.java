@@ -1,44 +1,217 @@
 package com.example.xyzreader.ui;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.support.v4.util.LruCache;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.widget.ImageView;
 
-import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
+import com.example.xyzreader.R;
+import com.example.xyzreader.remote.NetworkStack;
+import com.jakewharton.picasso.OkHttp3Downloader;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
 
+import timber.log.Timber;
+
+/**
+ * Sets up the process-wide {@link Picasso} instance on top of the shared
+ * {@link NetworkStack} client, so images use the same connection pool and disk cache as the
+ * feed. Bitmaps are kept in a {@link BitmapMemoryCache}; load through {@link #loadThumbnail}
+ * and {@link #loadPhoto} so each lands in the right budget.
+ * <p>
+ * Requests are ordered by priority class, both waiting for a download thread and for a decode
+ * thread: {@link #PRIORITY_VISIBLE} for what is on screen, {@link #PRIORITY_ADJACENT} for the
+ * pages next to it, {@link #PRIORITY_PREFETCH} for what may come into view.
+ */
 public class ImageLoaderHelper {
-    private static ImageLoaderHelper sInstance;
+    private static volatile ImageLoaderHelper sInstance;
 
+    /** Safe to call from any thread, the first call creates the instance. */
     public static ImageLoaderHelper getInstance(Context context) {
-        if (sInstance == null) {
-            sInstance = new ImageLoaderHelper(context.getApplicationContext());
+        ImageLoaderHelper instance = sInstance;
+        if (instance == null) {
+            synchronized (ImageLoaderHelper.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new ImageLoaderHelper(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
         }
-
-        return sInstance;
+        return instance;
     }
 
-    private final LruCache<String, Bitmap> mImageCache = new LruCache<String, Bitmap>(20);
-    private ImageLoader mImageLoader;
+    /** Images on screen. */
+    public static final Picasso.Priority PRIORITY_VISIBLE = Picasso.Priority.HIGH;
+    /** Images a swipe away, such as the photos of the pages next to the current one. */
+    public static final Picasso.Priority PRIORITY_ADJACENT = Picasso.Priority.NORMAL;
+    /** Images loaded ahead in case they are needed. */
+    public static final Picasso.Priority PRIORITY_PREFETCH = Picasso.Priority.LOW;
+
+    /** Share of {@link android.app.ActivityManager#getMemoryClass()} for pooled bitmaps. */
+    private static final float POOL_HEAP_FRACTION = 0.04f;
+
+    private final Picasso mPicasso;
+    private final BitmapMemoryCache mMemoryCache;
+    private final BitmapPool mPool;
+    private final BitmapReferences mReferences;
+    private final Bitmap.Config mThumbnailConfig;
 
     private ImageLoaderHelper(Context applicationContext) {
-        RequestQueue queue = Volley.newRequestQueue(applicationContext);
-        ImageLoader.ImageCache imageCache = new ImageLoader.ImageCache() {
+        mThumbnailConfig = applicationContext.getResources().getBoolean(
+                R.bool.decode_thumbnails_rgb_565) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        ActivityManager am = (ActivityManager) applicationContext.getSystemService(
+                Context.ACTIVITY_SERVICE);
+        mPool = new BitmapPool((int) (am.getMemoryClass() * 1024L * 1024L * POOL_HEAP_FRACTION));
+        mReferences = new BitmapReferences(mPool);
+        mMemoryCache = new BitmapMemoryCache(applicationContext, mReferences);
+        mPicasso = new Picasso.Builder(applicationContext)
+                .downloader(new OkHttp3Downloader(NetworkStack.getClient()))
+                // takes http(s) over from the downloader above, which only remains for
+                // Picasso's own bookkeeping
+                .addRequestHandler(new PooledNetworkRequestHandler(NetworkStack.getClient(),
+                        mPool, new DecodeExecutor()))
+                .memoryCache(mMemoryCache)
+                .build();
+        // Picasso.with() hands out this instance from now on.
+        Picasso.setSingletonInstance(mPicasso);
+
+        applicationContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                Timber.d("onTrimMemory(%d): %s, %s", level, mMemoryCache, mPool);
+                mMemoryCache.trimMemory(level);
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                    mPool.clear();
+                }
+            }
+
             @Override
-            public void putBitmap(String key, Bitmap value) {
-                mImageCache.put(key, value);
+            public void onLowMemory() {
+                mMemoryCache.clear();
+                mPool.clear();
             }
 
             @Override
-            public Bitmap getBitmap(String key) {
-                return mImageCache.get(key);
+            public void onConfigurationChanged(Configuration newConfig) {
             }
-        };
-        mImageLoader = new ImageLoader(queue, imageCache);
+        });
     }
 
-    public ImageLoader getImageLoader() {
-        return mImageLoader;
+    public Picasso getPicasso() {
+        return mPicasso;
+    }
+
+    public BitmapMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mPool;
+    }
+
+    /**
+     * Records that {@code view} now shows the thumbnail just loaded into it, call from the
+     * success callback of {@link #loadThumbnail}.
+     *
+     * @return the bitmap shown, to be passed to {@link #releaseThumbnail} later; null if the
+     * view doesn't show a bitmap
+     */
+    public Bitmap retainThumbnail(ImageView view) {
+        Drawable drawable = view.getDrawable();
+        if (!(drawable instanceof BitmapDrawable)) {
+            return null;
+        }
+        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        if (bitmap != null) {
+            mReferences.attach(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Shows the thumbnail of {@code url} in {@code view} if it is in the memory cache, as a
+     * stand-in until a larger image arrives.
+     *
+     * @return the bitmap shown, to be passed to {@link #releaseCachedThumbnail} once the view
+     * shows something else; null if no thumbnail was cached
+     */
+    public Bitmap showCachedThumbnail(ImageView view, String url) {
+        Bitmap bitmap;
+        // Looked up and retained in one step, an eviction in between would pool it.
+        synchronized (mReferences) {
+            bitmap = mMemoryCache.findThumbnail(url);
+            if (bitmap != null) {
+                mReferences.attach(bitmap);
+            }
+        }
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Lets go of a thumbnail from {@link #showCachedThumbnail}. The view must already have
+     * been given another image, or be gone.
+     */
+    public void releaseCachedThumbnail(Bitmap bitmap) {
+        if (bitmap != null) {
+            mReferences.detach(bitmap);
+        }
+    }
+
+    /**
+     * Clears {@code view} and lets go of its thumbnail, which is reused for decoding once the
+     * memory cache has dropped it as well. Call when the row is recycled or rebound.
+     */
+    public void releaseThumbnail(ImageView view, Bitmap bitmap) {
+        mPicasso.cancelRequest(view);
+        // the view must not draw the bitmap once it can be decoded into
+        view.setImageDrawable(null);
+        if (bitmap != null) {
+            mReferences.detach(bitmap);
+        }
+    }
+
+    /**
+     * A list thumbnail, cached in the thumbnail budget and decoded straight to the size it is
+     * shown at, see {@link #decodeTo}. Thumbnails have no alpha, so unless turned off in
+     * {@code R.bool.decode_thumbnails_rgb_565} they are decoded to half the bytes per pixel.
+     */
+    public RequestCreator loadThumbnail(String url, int width, float aspectRatio) {
+        return mPicasso.load(url)
+                .stableKey(decodeTo(BitmapMemoryCache.THUMBNAIL_KEY_PREFIX + url,
+                        width, aspectRatio))
+                .config(mThumbnailConfig);
+    }
+
+    /**
+     * An article photo, cached in the photo budget and decoded straight to the size it is
+     * shown at, see {@link #decodeTo}.
+     */
+    public RequestCreator loadPhoto(String url, int width, float aspectRatio) {
+        return mPicasso.load(url)
+                .stableKey(decodeTo(BitmapMemoryCache.PHOTO_KEY_PREFIX + url,
+                        width, aspectRatio));
+    }
+
+    /**
+     * Stable key asking for a decode to {@code width} and the height the aspect ratio gives,
+     * instead of the source resolution: subsampled while decoding ({@code inSampleSize}),
+     * scaled the rest of the way and never up, see {@link PooledNetworkRequestHandler}. With
+     * no known width the source size is kept.
+     */
+    private static String decodeTo(String key, int width, float aspectRatio) {
+        if (width <= 0 || aspectRatio <= 0) {
+            return key;
+        }
+        return PooledNetworkRequestHandler.sizedKey(key, width,
+                Math.max(1, Math.round(width / aspectRatio)));
     }
 }
@@ -0,0 +1,367 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.squareup.picasso.NetworkPolicy;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import timber.log.Timber;
+
+/**
+ * Loads http(s) images through the shared client and decodes them to the size they are shown
+ * at, taken from the stable key (see {@link #sizedKey}). Thumbnails are decoded into and
+ * scaled into bitmaps from the {@link BitmapPool}.
+ * <p>
+ * Picasso already shares one load between requests for the same key. Requests for the same
+ * url under different keys, a row at two widths or a prefetch and the row itself, share the
+ * download here, and only decode separately. A shared download runs on the client's own
+ * threads, so it outlives the request that started it; it is only aborted once every request
+ * waiting for it has been interrupted. Decodes run on a {@link DecodeExecutor}.
+ * <p>
+ * The size travels in the key rather than in {@link com.squareup.picasso.RequestCreator#resize}
+ * because Picasso recycles the decoded bitmap after scaling it itself, which would throw
+ * pooled bitmaps away on every load.
+ */
+class PooledNetworkRequestHandler extends RequestHandler {
+    private static final String SCHEME_HTTP = "http";
+    private static final String SCHEME_HTTPS = "https";
+
+    private static final Pattern SIZE_SUFFIX = Pattern.compile("#(\\d+)x(\\d+)$");
+
+    private final OkHttpClient mClient;
+    private final BitmapPool mPool;
+    private final DecodeExecutor mDecoder;
+    private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /** Downloads in flight, by url and network policy. Guarded by itself. */
+    private final HashMap<String, SharedDownload> mDownloads =
+            new HashMap<String, SharedDownload>();
+    private final AtomicInteger mSharedDownloads = new AtomicInteger();
+
+    PooledNetworkRequestHandler(OkHttpClient client, BitmapPool pool, DecodeExecutor decoder) {
+        mClient = client;
+        mPool = pool;
+        mDecoder = decoder;
+    }
+
+    /**
+     * Appends the display size to a stable key, or leaves it alone if the size isn't known.
+     * Images larger than that are subsampled, scaled and center-cropped to it; smaller ones
+     * are never scaled up.
+     */
+    static String sizedKey(String key, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return key;
+        }
+        return key + "#" + width + "x" + height;
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        final String scheme = data.uri != null ? data.uri.getScheme() : null;
+        return SCHEME_HTTP.equals(scheme) || SCHEME_HTTPS.equals(scheme);
+    }
+
+    @Override
+    public Result load(final Request request, int networkPolicy) throws IOException {
+        final Download download = download(request, networkPolicy);
+        final Bitmap bitmap = mDecoder.decode(request.priority, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws IOException {
+                return decode(download.bytes, request);
+            }
+        });
+        return new Result(bitmap, download.loadedFrom);
+    }
+
+    /** Downloads the image, or waits for the download already running for the same url. */
+    private Download download(Request request, int networkPolicy) throws IOException {
+        final String key = request.uri + "|" + networkPolicy;
+        final SharedDownload download;
+        final boolean started;
+        synchronized (mDownloads) {
+            final SharedDownload running = mDownloads.get(key);
+            started = running == null;
+            if (started) {
+                download = new SharedDownload(key,
+                        mClient.newCall(buildRequest(request, networkPolicy)));
+                mDownloads.put(key, download);
+            } else {
+                download = running;
+            }
+            download.mWaiters++;
+        }
+        if (started) {
+            download.mCall.enqueue(download);
+        } else {
+            Timber.d("Sharing the download of %s, %d shared so far", request.uri,
+                    mSharedDownloads.incrementAndGet());
+        }
+
+        try {
+            return download.await();
+        } finally {
+            release(download);
+        }
+    }
+
+    /** One request stopped waiting for {@code download}, the last one aborts it if unfinished. */
+    private void release(SharedDownload download) {
+        synchronized (mDownloads) {
+            if (--download.mWaiters > 0 || download.isDone()) {
+                return;
+            }
+            // a request arriving from now on starts over
+            if (mDownloads.get(download.mKey) == download) {
+                mDownloads.remove(download.mKey);
+            }
+        }
+        download.mCall.cancel();
+    }
+
+    private static Download read(Response response) throws IOException {
+        final ResponseBody body = response.body();
+        final byte[] bytes;
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response " + response.code() + " for "
+                        + response.request().url());
+            }
+            bytes = body.bytes();
+        } finally {
+            body.close();
+        }
+
+        return new Download(bytes, response.networkResponse() == null
+                ? Picasso.LoadedFrom.DISK : Picasso.LoadedFrom.NETWORK);
+    }
+
+    private static okhttp3.Request buildRequest(Request request, int networkPolicy) {
+        final okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                .url(request.uri.toString());
+        if (networkPolicy != 0) {
+            if (NetworkPolicy.isOfflineOnly(networkPolicy)) {
+                builder.cacheControl(CacheControl.FORCE_CACHE);
+            } else {
+                final CacheControl.Builder cacheControl = new CacheControl.Builder();
+                if (!NetworkPolicy.shouldReadFromDiskCache(networkPolicy)) {
+                    cacheControl.noCache();
+                }
+                if (!NetworkPolicy.shouldWriteToDiskCache(networkPolicy)) {
+                    cacheControl.noStore();
+                }
+                builder.cacheControl(cacheControl.build());
+            }
+        }
+        return builder.build();
+    }
+
+    private Bitmap decode(byte[] bytes, Request request) throws IOException {
+        final boolean pooled = request.stableKey != null
+                && request.stableKey.startsWith(BitmapMemoryCache.THUMBNAIL_KEY_PREFIX);
+        int targetWidth = 0;
+        int targetHeight = 0;
+        if (request.stableKey != null) {
+            final Matcher size = SIZE_SUFFIX.matcher(request.stableKey);
+            if (size.find()) {
+                targetWidth = Integer.parseInt(size.group(1));
+                targetHeight = Integer.parseInt(size.group(2));
+            }
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image: " + request.uri);
+        }
+
+        final Bitmap.Config config = request.config != null
+                ? request.config : Bitmap.Config.ARGB_8888;
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight,
+                targetWidth, targetHeight);
+        if (pooled) {
+            final int width = ceilDiv(options.outWidth, options.inSampleSize);
+            final int height = ceilDiv(options.outHeight, options.inSampleSize);
+            options.inBitmap = mPool.get(width * height * BitmapPool.bytesPerPixel(config));
+        }
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap doesn't fit this image after all
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            mPool.put(options.inBitmap);
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+        if (decoded == null) {
+            if (options.inBitmap != null) {
+                mPool.put(options.inBitmap);
+            }
+            throw new IOException("Failed to decode " + request.uri);
+        }
+
+        return scaleDown(decoded, targetWidth, targetHeight, pooled);
+    }
+
+    /** Largest power of two that keeps both sides at least the target size. */
+    private static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetWidth
+                && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Scales and center-crops {@code decoded} to the target size if it is larger, drawing
+     * into a pooled bitmap and pooling {@code decoded} when {@code pooled} is set.
+     */
+    private Bitmap scaleDown(Bitmap decoded, int targetWidth, int targetHeight, boolean pooled) {
+        final int width = decoded.getWidth();
+        final int height = decoded.getHeight();
+        if (targetWidth <= 0 || targetHeight <= 0
+                || (width == targetWidth && height == targetHeight)) {
+            return decoded;
+        }
+        // center crop scale, never up
+        final float scale = Math.max((float) targetWidth / width, (float) targetHeight / height);
+        if (scale >= 1f) {
+            return decoded;
+        }
+
+        final Bitmap.Config config = decoded.getConfig() != null
+                ? decoded.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap scaled = pooled ? mPool.get(targetWidth, targetHeight, config) : null;
+        if (scaled == null) {
+            scaled = Bitmap.createBitmap(targetWidth, targetHeight, config);
+        } else if (decoded.hasAlpha()) {
+            // leftovers of the previous image would show through
+            scaled.eraseColor(Color.TRANSPARENT);
+        }
+
+        final int cropWidth = Math.min(width, Math.round(targetWidth / scale));
+        final int cropHeight = Math.min(height, Math.round(targetHeight / scale));
+        final int left = (width - cropWidth) / 2;
+        final int top = (height - cropHeight) / 2;
+        new Canvas(scaled).drawBitmap(decoded,
+                new Rect(left, top, left + cropWidth, top + cropHeight),
+                new Rect(0, 0, targetWidth, targetHeight), mScalePaint);
+
+        if (pooled) {
+            mPool.put(decoded);
+        }
+        return scaled;
+    }
+
+    /**
+     * A download in flight and the requests waiting for it. Completed on one of the client's
+     * threads.
+     */
+    private class SharedDownload implements Callback {
+        final String mKey;
+        final Call mCall;
+        /** Requests waiting for the download. Guarded by mDownloads. */
+        int mWaiters;
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile Download mDownload;
+        private volatile IOException mError;
+
+        SharedDownload(String key, Call call) {
+            mKey = key;
+            mCall = call;
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try {
+                mDownload = read(response);
+            } catch (IOException e) {
+                mError = e;
+            }
+            finish();
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            mError = e;
+            finish();
+        }
+
+        private void finish() {
+            synchronized (mDownloads) {
+                if (mDownloads.get(mKey) == this) {
+                    mDownloads.remove(mKey);
+                }
+            }
+            mDone.countDown();
+        }
+
+        boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        Download await() throws IOException {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (mError != null) {
+                throw mError;
+            }
+            return mDownload;
+        }
+    }
+
+    /** Encoded image, only read once downloaded. */
+    private static class Download {
+        final byte[] bytes;
+        final Picasso.LoadedFrom loadedFrom;
+
+        Download(byte[] bytes, Picasso.LoadedFrom loadedFrom) {
+            this.bytes = bytes;
+            this.loadedFrom = loadedFrom;
+        }
+    }
+}
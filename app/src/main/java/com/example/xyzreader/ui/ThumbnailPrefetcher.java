@@ -0,0 +1,242 @@
+package com.example.xyzreader.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
+import android.util.SparseArray;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Target;
+
+import timber.log.Timber;
+
+/**
+ * Loads the thumbnails of the rows about to scroll into view while the list scrolls, so they
+ * are in the memory cache by the time the rows bind. How far ahead depends on the scroll
+ * speed: the rows the list will cover in {@link #LOOKAHEAD_MILLIS}, at least one row of
+ * columns and at most the queue depth.
+ * <p>
+ * Prefetches run at {@link ImageLoaderHelper#PRIORITY_PREFETCH}, behind the requests of rows on screen. At
+ * most {@code maxQueued} are in flight; those for rows left more than {@code maxDistance}
+ * positions outside the visible range, or behind it after a change of direction, are
+ * cancelled. Must be used from the main thread.
+ */
+class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+    /** How far ahead in time the list is prefetched. */
+    private static final long LOOKAHEAD_MILLIS = 600;
+
+    /** What the rows show, by adapter position. */
+    interface Source {
+        /** Thumbnail url of the row, null if not known yet. */
+        String getThumbnailUrl(int position);
+
+        float getAspectRatio(int position);
+
+        /** Width the thumbnails are shown at, see {@link ImageLoaderHelper#loadThumbnail}. */
+        int getThumbnailWidth();
+    }
+
+    private final ImageLoaderHelper mImageLoader;
+    private final Source mSource;
+    private final int mMaxQueued;
+    private final int mMaxDistance;
+
+    /** Prefetches in flight by position. Picasso only holds weak references to targets. */
+    private final SparseArray<PrefetchTarget> mInFlight = new SparseArray<PrefetchTarget>();
+    /** Scroll direction of the last prefetch, 1 down, -1 up. */
+    private int mDirection;
+    /** Furthest position already prefetched in {@link #mDirection}. */
+    private int mPrefetchedUpTo = RecyclerView.NO_POSITION;
+    private long mLastScrollTime;
+
+    private int mRequested;
+    private int mCancelled;
+
+    /**
+     * @param maxQueued   prefetches in flight at most
+     * @param maxDistance positions outside the visible range a prefetch may fall behind
+     *                    before it is cancelled
+     */
+    ThumbnailPrefetcher(ImageLoaderHelper imageLoader, Source source, int maxQueued,
+            int maxDistance) {
+        mImageLoader = imageLoader;
+        mSource = source;
+        mMaxQueued = Math.max(1, maxQueued);
+        mMaxDistance = Math.max(0, maxDistance);
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        final long now = SystemClock.uptimeMillis();
+        final long elapsed = Math.max(1, now - mLastScrollTime);
+        mLastScrollTime = now;
+        if (dy == 0) {
+            return;
+        }
+
+        final int[] visible = visibleRange(recyclerView.getLayoutManager());
+        if (visible == null) {
+            return;
+        }
+        final int first = visible[0];
+        final int last = visible[1];
+        final int direction = dy > 0 ? 1 : -1;
+        if (direction != mDirection) {
+            mDirection = direction;
+            mPrefetchedUpTo = RecyclerView.NO_POSITION;
+        }
+        cancelOutside(first - (direction < 0 ? mMaxDistance : 0),
+                last + (direction > 0 ? mMaxDistance : 0));
+
+        final int columns = spanCount(recyclerView.getLayoutManager());
+        final int visibleCount = last - first + 1;
+        // A long pause since the last frame means the scroll just started, don't count it.
+        final float pixelsPerMilli = elapsed > LOOKAHEAD_MILLIS
+                ? 0 : Math.abs(dy) / (float) elapsed;
+        final float rowHeight = (float) recyclerView.getHeight() * columns / visibleCount;
+        final int ahead = Math.min(mMaxQueued, columns
+                * (1 + (int) (pixelsPerMilli * LOOKAHEAD_MILLIS / Math.max(1, rowHeight))));
+
+        final int itemCount = recyclerView.getAdapter() != null
+                ? recyclerView.getAdapter().getItemCount() : 0;
+        int position = direction > 0 ? last + 1 : first - 1;
+        if (mPrefetchedUpTo != RecyclerView.NO_POSITION
+                && (mPrefetchedUpTo - position) * direction >= 0) {
+            position = mPrefetchedUpTo + direction;
+        }
+        final int end = direction > 0
+                ? Math.min(itemCount - 1, last + ahead) : Math.max(0, first - ahead);
+        final int width = mSource.getThumbnailWidth();
+        for (; (end - position) * direction >= 0 && mInFlight.size() < mMaxQueued;
+                position += direction) {
+            if (!prefetch(position, width)) {
+                // not loaded yet, try again on the next scroll
+                break;
+            }
+            mPrefetchedUpTo = position;
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            Timber.d("ThumbnailPrefetcher: %d requested, %d cancelled, %d in flight",
+                    mRequested, mCancelled, mInFlight.size());
+        }
+    }
+
+    /** Cancels every prefetch in flight, and starts over on the next scroll. */
+    void cancelAll() {
+        cancelOutside(Integer.MAX_VALUE, Integer.MIN_VALUE);
+        mDirection = 0;
+        mPrefetchedUpTo = RecyclerView.NO_POSITION;
+    }
+
+    /** @return false if the row isn't known yet */
+    private boolean prefetch(int position, int width) {
+        if (mInFlight.get(position) != null) {
+            return true;
+        }
+        final String url = mSource.getThumbnailUrl(position);
+        if (url == null) {
+            return false;
+        }
+        final PrefetchTarget target = new PrefetchTarget(position);
+        mInFlight.put(position, target);
+        mRequested++;
+        // A row binding while this is in flight joins it, Picasso shares requests by key.
+        mImageLoader.loadThumbnail(url, width, mSource.getAspectRatio(position))
+                .priority(ImageLoaderHelper.PRIORITY_PREFETCH)
+                .into(target);
+        return true;
+    }
+
+    private void cancelOutside(int from, int to) {
+        for (int i = mInFlight.size() - 1; i >= 0; i--) {
+            final int position = mInFlight.keyAt(i);
+            if (position < from || position > to) {
+                final PrefetchTarget target = mInFlight.valueAt(i);
+                mInFlight.removeAt(i);
+                mImageLoader.getPicasso().cancelRequest(target);
+                mCancelled++;
+            }
+        }
+    }
+
+    /** First and last visible adapter positions, null if there are none. */
+    private static int[] visibleRange(RecyclerView.LayoutManager layoutManager) {
+        int first;
+        int last;
+        if (layoutManager instanceof StaggeredGridLayoutManager) {
+            final StaggeredGridLayoutManager grid = (StaggeredGridLayoutManager) layoutManager;
+            first = min(grid.findFirstVisibleItemPositions(null));
+            last = max(grid.findLastVisibleItemPositions(null));
+        } else if (layoutManager instanceof LinearLayoutManager) {
+            final LinearLayoutManager linear = (LinearLayoutManager) layoutManager;
+            first = linear.findFirstVisibleItemPosition();
+            last = linear.findLastVisibleItemPosition();
+        } else {
+            return null;
+        }
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return null;
+        }
+        return new int[]{first, last};
+    }
+
+    private static int spanCount(RecyclerView.LayoutManager layoutManager) {
+        return layoutManager instanceof StaggeredGridLayoutManager
+                ? ((StaggeredGridLayoutManager) layoutManager).getSpanCount() : 1;
+    }
+
+    private static int min(int[] positions) {
+        int min = RecyclerView.NO_POSITION;
+        for (int position : positions) {
+            if (position != RecyclerView.NO_POSITION
+                    && (min == RecyclerView.NO_POSITION || position < min)) {
+                min = position;
+            }
+        }
+        return min;
+    }
+
+    private static int max(int[] positions) {
+        int max = RecyclerView.NO_POSITION;
+        for (int position : positions) {
+            max = Math.max(max, position);
+        }
+        return max;
+    }
+
+    /** Leaves the bitmap in the memory cache, where the row's own request finds it. */
+    private class PrefetchTarget implements Target {
+        private final int mPosition;
+
+        PrefetchTarget(int position) {
+            mPosition = position;
+        }
+
+        @Override
+        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+            done();
+        }
+
+        @Override
+        public void onBitmapFailed(Drawable errorDrawable) {
+            done();
+        }
+
+        @Override
+        public void onPrepareLoad(Drawable placeHolderDrawable) {
+        }
+
+        private void done() {
+            if (mInFlight.get(mPosition) == this) {
+                mInFlight.remove(mPosition);
+            }
+        }
+    }
+}
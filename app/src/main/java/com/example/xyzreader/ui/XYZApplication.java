@@ -3,6 +3,7 @@ package com.example.xyzreader.ui;
 import android.app.Application;
 
 import com.example.xyzreader.BuildConfig;
+import com.example.xyzreader.remote.NetworkStack;
 
 import timber.log.Timber;
 
@@ -24,5 +25,10 @@ public class XYZApplication extends Application {
             //DebugTree →デバッグビルド用のTree。このTree をどのクラスからコールしても、TAG を暗黙裡に推理して当てはめてくれる
             Timber.plant(new Timber.DebugTree());
         }
+
+        // One HTTP stack for the feed and the images, before anything can make a request.
+        NetworkStack.init(this);
+        ImageLoaderHelper.getInstance(this);
+        FontRegistry.preloadWhenIdle(this);
     }
 }